@@ -0,0 +1,191 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 自适应分布式信号量
+ * 原理：最大信号量个数保存在redis中由所有节点共享，获得信号量时在lua脚本中原子读取；
+ * 释放信号量时根据调用耗时和是否失败，由限制算法（AIMD、梯度）计算新的最大值，使用比较并更新的方式写回，避免多个节点互相覆盖
+ * 问题：最大值增加时不会额外通知等待线程，等待线程在下一次释放时重新尝试
+ */
+public class AdaptiveDistributeSemaphore {
+    /**
+     * 等待信号量默认超时时间
+     */
+    private static int WAIT_SECOND = 60;
+    /**
+     * 初始最大信号量个数
+     */
+    private int initLimit;
+    /**
+     * 信号量超时时间
+     */
+    private int expireSecond;
+    /**
+     * 本地缓存的最大信号量个数
+     */
+    private volatile int limit;
+    private LimitAlgorithm algorithm;
+    /**
+     * 等待上限 默认不限制
+     */
+    private WaitLimit waitLimit = WaitLimit.NONE;
+    private DistributeBackend backend;
+    /**
+     * redis中信号量key、释放信号量通知列表、最大信号量个数key
+     */
+    private DistributeKey key;
+
+    /**
+     * 实例化自适应分布式信号量
+     *
+     * @param jedisPool         redis连接池
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param initLimit         初始最大信号量个数
+     * @param expireSecond      信号量超时时间
+     * @param algorithm         限制算法
+     */
+    public AdaptiveDistributeSemaphore(JedisPool jedisPool, String redisSemaphoreKey, int initLimit, int expireSecond, LimitAlgorithm algorithm) {
+        this(new JedisDistributeBackend(jedisPool), redisSemaphoreKey, initLimit, expireSecond, algorithm);
+    }
+
+    /**
+     * 实例化自适应分布式信号量
+     *
+     * @param backend           协调后端
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param initLimit         初始最大信号量个数
+     * @param expireSecond      信号量超时时间
+     * @param algorithm         限制算法
+     */
+    public AdaptiveDistributeSemaphore(DistributeBackend backend, String redisSemaphoreKey, int initLimit, int expireSecond, LimitAlgorithm algorithm) {
+        this.backend = backend;
+        this.key = DistributeKey.semaphore(redisSemaphoreKey);
+        this.initLimit = initLimit > 0 ? initLimit : 1;
+        this.expireSecond = expireSecond;
+        this.algorithm = algorithm;
+        this.limit = this.initLimit;
+    }
+
+    /**
+     * 获得共享的最大信号量个数 并刷新本地缓存
+     */
+    public int getLimit() {
+        limit = backend.getLimit(key, initLimit);
+        return limit;
+    }
+
+    /**
+     * 获得可用信号量 非原子操作 结果供参考
+     */
+    public int getSemaphore() {
+        return getLimit() - backend.getUsed(key);
+    }
+
+    /**
+     * 获得redis中的key
+     */
+    public DistributeKey getKey() {
+        return key;
+    }
+
+    /**
+     * 获得单个信号量
+     */
+    public void acquire() {
+        acquire(1, WAIT_SECOND);
+    }
+
+    /**
+     * 获得信号量
+     *
+     * @param n          信号量个数
+     * @param waitSecond 等待超时时间
+     */
+    public void acquire(int n, int waitSecond) {
+        if (!tryAcquire(n, waitSecond)) {
+            throw new DistributeSemaphoreException(DistributeSemaphoreException.WAIT_SEMAPHORE_TIMEOUT, "获取信号量超时");
+        }
+    }
+
+    /**
+     * 获得信号量
+     *
+     * @param n          信号量个数
+     * @param waitSecond 等待超时时间
+     * @return true 获得成功 false 超时
+     */
+    public boolean tryAcquire(int n, int waitSecond) {
+        //最大信号量个数在脚本中原子读取 超过集群等待上限时在脚本中拒绝
+        String flag = DistributeLock.getThreadFlag(backend);
+        if (backend.tryAcquireLimited(key, flag, n, initLimit, expireSecond, false, waitLimit)) {
+            return true;
+        }
+        boolean acquired = false;
+        try {
+            //超过本地等待上限时离开等待并拒绝
+            if (!waitLimit.enterLocal(backend, key)) {
+                throw new DistributeRejectedException(DistributeRejectedException.LOCAL_QUEUE_DEPTH, key.getName());
+            }
+            try {
+                //阻塞等待释放信号量通知
+                acquired = BlockingWaitStrategy.INSTANCE.await(() -> backend.tryAcquireLimited(key, flag, n, initLimit, expireSecond, true, WaitLimit.NONE), backend, key, waitSecond);
+            } finally {
+                waitLimit.leaveLocal(backend, key);
+            }
+        } catch (Throwable e) {
+            //拒绝或异常时离开等待 再抛出原异常
+            DistributeLock.cancelWait(backend, key, flag, e);
+            throw e;
+        }
+        //如果超时则离开等待 返回失败
+        if (!acquired) {
+            DistributeLock.cancelWait(backend, key, flag, null);
+        }
+        return acquired;
+    }
+
+    /**
+     * 设置等待上限 限制降低时等待队列较长 可以配合等待上限立即拒绝
+     *
+     * @param waitLimit 等待上限 为null时不限制
+     */
+    public void setWaitLimit(WaitLimit waitLimit) {
+        this.waitLimit = waitLimit != null ? waitLimit : WaitLimit.NONE;
+    }
+
+    /**
+     * 释放单个信号量 不参与限制计算
+     */
+    public void release() {
+        release(1);
+    }
+
+    /**
+     * 释放信号量 不参与限制计算
+     *
+     * @param n 信号量个数
+     */
+    public void release(int n) {
+        backend.release(key, n, 0);
+    }
+
+    /**
+     * 释放信号量 并根据本次调用结果调整最大信号量个数
+     *
+     * @param n        信号量个数
+     * @param rttNanos 本次调用耗时纳秒数
+     * @param dropped  本次调用是否失败或超时
+     */
+    public void release(int n, long rttNanos, boolean dropped) {
+        int used = backend.release(key, n, (int) TimeUnit.NANOSECONDS.toMillis(rttNanos));
+        int current = limit;
+        int next = algorithm.update(current, rttNanos, used + n, dropped);
+        if (next != current) {
+            //更新失败时返回其他节点写入的值 直接作为本地缓存
+            limit = backend.compareAndSetLimit(key, initLimit, current, next);
+        }
+    }
+}
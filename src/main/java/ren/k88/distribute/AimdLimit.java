@@ -0,0 +1,63 @@
+package ren.k88.distribute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 加性增 乘性减 限制算法
+ * 原理：调用成功且信号量基本用满时最大信号量加一，调用失败或耗时超过阈值时按比例减少
+ */
+public class AimdLimit implements LimitAlgorithm {
+    /**
+     * 最小信号量个数
+     */
+    private int minLimit;
+    /**
+     * 最大信号量个数
+     */
+    private int maxLimit;
+    /**
+     * 减少比例
+     */
+    private double backoffRatio;
+    /**
+     * 超过该耗时视为失败
+     */
+    private long timeoutNanos;
+
+    /**
+     * 实例化AIMD限制算法 减少比例0.9 耗时阈值5秒
+     *
+     * @param minLimit 最小信号量个数
+     * @param maxLimit 最大信号量个数
+     */
+    public AimdLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, 0.9, TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * 实例化AIMD限制算法
+     *
+     * @param minLimit     最小信号量个数
+     * @param maxLimit     最大信号量个数
+     * @param backoffRatio 减少比例 0到1之间
+     * @param timeoutNanos 超过该耗时视为失败
+     */
+    public AimdLimit(int minLimit, int maxLimit, double backoffRatio, long timeoutNanos) {
+        this.minLimit = minLimit > 0 ? minLimit : 1;
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.backoffRatio = backoffRatio > 0 && backoffRatio < 1 ? backoffRatio : 0.9;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public int update(int limit, long rttNanos, int inflight, boolean dropped) {
+        if (dropped || rttNanos > timeoutNanos) {
+            return Math.max(minLimit, Math.min(maxLimit, (int) (limit * backoffRatio)));
+        }
+        //信号量使用不足一半时 说明压力来自调用方 不增加
+        if (inflight * 2 >= limit) {
+            return Math.max(minLimit, Math.min(maxLimit, limit + 1));
+        }
+        return limit;
+    }
+}
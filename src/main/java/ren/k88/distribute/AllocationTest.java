@@ -0,0 +1,62 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 无竞争获得、释放锁和信号量的内存分配测试
+ * 使用当前线程分配的字节数统计 结果包含jedis内部的分配
+ */
+public class AllocationTest {
+    //预热次数
+    public static int warmup = 20000;
+    //统计次数
+    public static int times = 100000;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(8);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        LockRegistry registry = new LockRegistry(backend);
+        DistributeLock lock = registry.getLock("alloc");
+        DistributeSemaphore semaphore = registry.getSemaphore("alloc", 1, -1);
+        String flag = lock.getThreadFlag();
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+
+        for (int i = 0; i < warmup; i++) {
+            lock.lock(10, 10, flag);
+            lock.unlock(flag);
+        }
+        long begin = bean.getThreadAllocatedBytes(id);
+        long time = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            lock.lock(10, 10, flag);
+            lock.unlock(flag);
+        }
+        System.out.println("获得释放锁【" + times + "】次 平均分配【" + (bean.getThreadAllocatedBytes(id) - begin) / times
+                + "】字节 平均耗时【" + (System.nanoTime() - time) / times + "】纳秒");
+
+        for (int i = 0; i < warmup; i++) {
+            semaphore.tryAcquire(1, 10);
+            semaphore.release(1);
+        }
+        begin = bean.getThreadAllocatedBytes(id);
+        time = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            semaphore.tryAcquire(1, 10);
+            semaphore.release(1);
+        }
+        System.out.println("获得释放信号量【" + times + "】次 平均分配【" + (bean.getThreadAllocatedBytes(id) - begin) / times
+                + "】字节 平均耗时【" + (System.nanoTime() - time) / times + "】纳秒");
+    }
+}
@@ -0,0 +1,85 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 批量持锁执行器测试 比较每次更新单独获得锁和合并后批量获得锁的吞吐量
+ */
+public class BatchExecutorTest {
+    //线程数
+    public static int n = 50;
+    //每个线程更新次数
+    public static int times = 200;
+    //被锁保护的计数
+    public static int counter;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(200);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        runLock(backend);
+        runBatch(backend);
+    }
+
+    private static void runLock(DistributeBackend backend) throws Exception {
+        counter = 0;
+        CountDownLatch countDownLatch = new CountDownLatch(n);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                DistributeLock lock = new DistributeLock(backend, "batch:lock");
+                String flag = lock.getThreadFlag();
+                for (int j = 0; j < times; j++) {
+                    lock.lock(10, 60, flag);
+                    counter++;
+                    lock.unlock(flag);
+                }
+                countDownLatch.countDown();
+            });
+            t.start();
+        }
+        countDownLatch.await();
+        print("每次获得锁", begin, "");
+    }
+
+    private static void runBatch(DistributeBackend backend) throws Exception {
+        counter = 0;
+        LockedBatchExecutor executor = new LockedBatchExecutor(backend, "batch:executor", 100, 1);
+        CountDownLatch countDownLatch = new CountDownLatch(n);
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                CompletableFuture<Void> last = null;
+                for (int j = 0; j < times; j++) {
+                    last = executor.submit(() -> {
+                        counter++;
+                    });
+                }
+                last.join();
+                countDownLatch.countDown();
+            });
+            t.start();
+        }
+        countDownLatch.await();
+        print("批量获得锁", begin, " 获得锁【" + executor.getBatchCount() + "】次");
+        executor.shutdown();
+    }
+
+    private static void print(String name, long begin, String extra) {
+        long cost = Math.max(1, System.currentTimeMillis() - begin);
+        System.out.println("【" + name + "】【" + n + "】个线程各更新【" + times + "】次 执行时间【" + cost + "】毫秒 吞吐量【"
+                + (long) n * times * 1000 / cost + "】次/秒 计数【" + counter + "】" + extra);
+    }
+}
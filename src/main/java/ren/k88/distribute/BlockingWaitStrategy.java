@@ -0,0 +1,38 @@
+package ren.k88.distribute;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 阻塞等待策略
+ * 原理：阻塞在释放通知列表上，收到通知后重新尝试，每次等待都重新计算超时时间
+ * 单次阻塞最长 DistributeLock.WAIT_CHUNK_SECOND 秒，没有通知时也重新尝试一次，续期等待租约，同时避免通知丢失时的假性死锁
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    /**
+     * 共享实例 无状态
+     */
+    public static final BlockingWaitStrategy INSTANCE = new BlockingWaitStrategy();
+
+    @Override
+    public boolean await(BooleanSupplier attempt, DistributeBackend backend, DistributeKey key, int waitSecond) {
+        int remain = waitSecond;
+        while (true) {
+            //单次阻塞不超过 DistributeLock.WAIT_CHUNK_SECOND 醒来后重新尝试 续期等待租约
+            int chunk = remain > 0 ? Math.min(remain, DistributeLock.WAIT_CHUNK_SECOND) : DistributeLock.WAIT_CHUNK_SECOND;
+            boolean notified = backend.await(key, chunk);
+            if (notified) {
+                remain = waitSecond;
+            } else if (waitSecond > 0 && (remain -= chunk) <= 0 || Thread.currentThread().isInterrupted()) {
+                //如果超时则返回失败 被中断时与超时相同
+                return false;
+            }
+            if (attempt.getAsBoolean()) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void onHold(long holdNanos) {
+    }
+}
@@ -0,0 +1,101 @@
+package ren.k88.distribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 有界并发缓存
+ * 原理：ConcurrentHashMap保存对象和最近访问时间，命中时只更新访问时间不分配对象；
+ * 新增时如果超过最大个数或距离上次清理超过空闲时间，则由一个线程清理空闲对象，仍超过最大个数时按最近访问时间淘汰
+ */
+class BoundedCache<V> {
+    private final ConcurrentHashMap<String, Node<V>> map = new ConcurrentHashMap<>();
+    /**
+     * 最大个数
+     */
+    private final int maxSize;
+    /**
+     * 空闲超过该时间的对象会被清理
+     */
+    private final long idleNanos;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweep = System.nanoTime();
+
+    BoundedCache(int maxSize, long idleNanos) {
+        this.maxSize = maxSize > 0 ? maxSize : 1;
+        this.idleNanos = idleNanos;
+    }
+
+    /**
+     * 获得缓存对象 不存在时返回null
+     */
+    V get(String key) {
+        Node<V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.lastAccess = System.nanoTime();
+        return node.value;
+    }
+
+    /**
+     * 放入缓存对象 已存在时返回已有对象
+     */
+    V putIfAbsent(String key, V value) {
+        long now = System.nanoTime();
+        Node<V> node = map.putIfAbsent(key, new Node<>(value, now));
+        if (node != null) {
+            node.lastAccess = now;
+            return node.value;
+        }
+        if (map.size() > maxSize || now - lastSweep > idleNanos) {
+            sweep(now);
+        }
+        return value;
+    }
+
+    int size() {
+        return map.size();
+    }
+
+    void clear() {
+        map.clear();
+    }
+
+    /**
+     * 清理空闲对象 超过最大个数时淘汰最久未访问的对象至最大个数的九成
+     */
+    private void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            lastSweep = now;
+            map.values().removeIf(node -> now - node.lastAccess > idleNanos);
+            if (map.size() <= maxSize) {
+                return;
+            }
+            List<Map.Entry<String, Node<V>>> entries = new ArrayList<>(map.entrySet());
+            entries.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+            int remove = entries.size() - maxSize * 9 / 10;
+            for (int i = 0; i < remove && i < entries.size(); i++) {
+                map.remove(entries.get(i).getKey(), entries.get(i).getValue());
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static class Node<V> {
+        private final V value;
+        private volatile long lastAccess;
+
+        Node(V value, long lastAccess) {
+            this.value = value;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
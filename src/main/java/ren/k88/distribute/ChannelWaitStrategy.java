@@ -0,0 +1,356 @@
+package ren.k88.distribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 共享通知通道等待策略 适用于大量等待线程（如jdk21的虚拟线程）
+ * 原理：每个协调后端（分片时每个分片）只有一个监听线程和一个连接，用一次BLPOP同时阻塞在所有有本地等待线程的通知列表上，
+ * 取到一个通知后唤醒该key的一个本地等待线程，等待线程只在重新尝试时借用连接执行一次脚本；
+ * 等待线程使用LockSupport挂起，不占用连接，也不在synchronized中阻塞
+ * 通知列表中的通知与阻塞等待策略相同，可以与其他节点上使用阻塞等待策略的线程混用；取到的通知没有本地等待线程时放回
+ */
+public class ChannelWaitStrategy implements WaitStrategy {
+    /**
+     * 监听线程单次阻塞的秒数
+     */
+    private static int LISTEN_SECOND = 5;
+    /**
+     * 唤醒列表保留秒数 超过单次监听时间后监听线程已重新读取key 未取走的唤醒通知不再需要
+     */
+    private static int WAKE_EXPIRE_SECOND = 2 * LISTEN_SECOND;
+    /**
+     * 每个后端的通知通道
+     */
+    private final ConcurrentMap<DistributeBackend, Channel> channels = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    @Override
+    public boolean await(BooleanSupplier attempt, DistributeBackend backend, DistributeKey key, int waitSecond) {
+        long deadline = waitSecond > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(waitSecond) : 0;
+        while (true) {
+            //关闭后监听线程已退出 剩余时间改为阻塞等待
+            if (shutdown) {
+                return awaitBlocking(attempt, backend, key, deadline);
+            }
+            Channel channel = channel(backend, key);
+            Waiter waiter = channel.register(key);
+            //与关闭同时发生时可能错过唤醒 未收到通知则不再挂起
+            if (shutdown && waiter.cancel()) {
+                channel.unregister(key);
+                continue;
+            }
+            //单次挂起不超过 DistributeLock.WAIT_CHUNK_SECOND 醒来后重新尝试 续期等待租约
+            long chunk = System.nanoTime() + TimeUnit.SECONDS.toNanos(DistributeLock.WAIT_CHUNK_SECOND);
+            boolean last = deadline != 0 && deadline - chunk <= 0;
+            if (!waiter.park(last ? deadline : chunk)) {
+                channel.unregister(key);
+                //被中断时与超时相同
+                if (last || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+            }
+            if (attempt.getAsBoolean()) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void onHold(long holdNanos) {
+    }
+
+    /**
+     * 停止所有监听线程 唤醒所有等待中的线程重新尝试
+     * 之后使用该策略的等待改为阻塞等待策略
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Channel channel : channels.values()) {
+            channel.wake();
+            channel.signalAll();
+        }
+    }
+
+    /**
+     * 在剩余时间内使用阻塞等待策略
+     *
+     * @param deadline 超时时间点 为0时一直等待
+     */
+    private static boolean awaitBlocking(BooleanSupplier attempt, DistributeBackend backend, DistributeKey key, long deadline) {
+        if (deadline == 0) {
+            return BlockingWaitStrategy.INSTANCE.await(attempt, backend, key, 0);
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+            return false;
+        }
+        int waitSecond = (int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1));
+        return BlockingWaitStrategy.INSTANCE.await(attempt, backend, key, waitSecond);
+    }
+
+    /**
+     * 获得本地等待线程数
+     */
+    public int getWaiting() {
+        int n = 0;
+        for (Channel channel : channels.values()) {
+            n += channel.waiting.get();
+        }
+        return n;
+    }
+
+    /**
+     * 获得监听线程数 即等待占用的连接数
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+
+    /**
+     * 获得key所在后端的通知通道 分片时按分片区分
+     */
+    private Channel channel(DistributeBackend backend, DistributeKey key) {
+        DistributeBackend target = backend instanceof ShardedDistributeBackend ? ((ShardedDistributeBackend) backend).getBackend(key) : backend;
+        Channel channel = channels.get(target);
+        return channel != null ? channel : channels.computeIfAbsent(target, Channel::new);
+    }
+
+    /**
+     * 一个后端的通知通道
+     */
+    private class Channel {
+        private final DistributeBackend backend;
+        /**
+         * 唤醒监听线程重新读取监听的key
+         */
+        private final DistributeKey wakeKey;
+        /**
+         * 通知列表key到本地等待线程
+         */
+        private final ConcurrentMap<String, Waiters> watched = new ConcurrentHashMap<>();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Thread listener;
+        /**
+         * 监听线程是否阻塞在redis上
+         */
+        private volatile boolean listening;
+
+        Channel(DistributeBackend backend) {
+            this.backend = backend;
+            this.wakeKey = DistributeKey.lock("channel:" + backend.nextThreadFlag());
+            this.listener = new Thread(this::listen, "wait-channel-" + wakeKey.getName());
+            this.listener.setDaemon(true);
+            this.listener.start();
+        }
+
+        /**
+         * 加入等待 key没有被监听时唤醒监听线程
+         */
+        Waiter register(DistributeKey key) {
+            Waiter waiter = new Waiter();
+            boolean[] added = new boolean[1];
+            watched.compute(key.getListKey(), (k, w) -> {
+                if (w == null) {
+                    w = new Waiters(key);
+                    added[0] = true;
+                }
+                w.queue.add(waiter);
+                w.live++;
+                return w;
+            });
+            waiting.incrementAndGet();
+            if (added[0]) {
+                wake();
+            }
+            return waiter;
+        }
+
+        /**
+         * 等待超时 没有等待线程时不再监听 已超时的等待留在队列中 分发时跳过
+         */
+        void unregister(DistributeKey key) {
+            leave(key);
+        }
+
+        /**
+         * 等待线程离开 key没有等待线程时移除
+         */
+        private void leave(DistributeKey key) {
+            waiting.decrementAndGet();
+            watched.computeIfPresent(key.getListKey(), (k, w) -> --w.live > 0 ? w : null);
+        }
+
+        /**
+         * 唤醒监听线程 阻塞在redis上时放入一个唤醒通知 唤醒列表超时后删除 进程意外退出时不残留
+         */
+        void wake() {
+            LockSupport.unpark(listener);
+            if (listening) {
+                try {
+                    backend.notifyWaiters(wakeKey, 1);
+                    backend.expireNotify(wakeKey, WAKE_EXPIRE_SECOND);
+                } catch (RuntimeException e) {
+                    //监听线程在单次阻塞超时后读取新的key
+                }
+            }
+        }
+
+        /**
+         * 唤醒所有本地等待线程
+         */
+        void signalAll() {
+            for (Waiters w : watched.values()) {
+                Waiter waiter;
+                while ((waiter = w.queue.poll()) != null) {
+                    if (waiter.signal()) {
+                        leave(w.key);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 监听线程 没有等待线程时在本地挂起 停止后删除唤醒列表
+         */
+        private void listen() {
+            while (!shutdown) {
+                listening = true;
+                List<Waiters> list = new ArrayList<>(watched.values());
+                if (list.isEmpty()) {
+                    listening = false;
+                    if (watched.isEmpty() && !shutdown) {
+                        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(LISTEN_SECOND));
+                    }
+                    continue;
+                }
+                DistributeKey[] keys = new DistributeKey[list.size() + 1];
+                keys[0] = wakeKey;
+                for (int i = 0; i < list.size(); i++) {
+                    keys[i + 1] = list.get(i).key;
+                }
+                int i;
+                try {
+                    i = backend.awaitAny(keys, LISTEN_SECOND);
+                } catch (RuntimeException e) {
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                    continue;
+                } finally {
+                    listening = false;
+                }
+                if (i > 0) {
+                    dispatch(keys[i]);
+                }
+            }
+            //停止后删除唤醒列表 删除失败时超时后删除
+            try {
+                backend.expireNotify(wakeKey, 0);
+            } catch (RuntimeException e) {
+                //唤醒列表超时后删除
+            }
+        }
+
+        /**
+         * 把一个通知交给key的一个本地等待线程 没有等待线程时放回
+         */
+        private void dispatch(DistributeKey key) {
+            Waiters w = watched.get(key.getListKey());
+            if (w != null) {
+                Waiter waiter;
+                while ((waiter = w.queue.poll()) != null) {
+                    if (waiter.signal()) {
+                        leave(key);
+                        return;
+                    }
+                }
+            }
+            try {
+                backend.notifyWaiters(key, 1);
+            } catch (RuntimeException e) {
+                //放回失败时其他等待线程超时后重试
+            }
+        }
+    }
+
+    /**
+     * 一个key的本地等待线程 先进先出
+     */
+    private static class Waiters {
+        private final DistributeKey key;
+        private final ConcurrentLinkedQueue<Waiter> queue = new ConcurrentLinkedQueue<>();
+        /**
+         * 未超时的等待线程数 只在compute中修改
+         */
+        private int live;
+
+        Waiters(DistributeKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 一次等待
+     */
+    private static class Waiter {
+        private static final int WAITING = 0;
+        private static final int SIGNALLED = 1;
+        private static final int CANCELLED = 2;
+        private final Thread thread = Thread.currentThread();
+        private final AtomicInteger state = new AtomicInteger();
+
+        /**
+         * 交给通知
+         *
+         * @return false 已超时
+         */
+        boolean signal() {
+            if (state.compareAndSet(WAITING, SIGNALLED)) {
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 放弃等待
+         *
+         * @return false 已收到通知
+         */
+        boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED);
+        }
+
+        /**
+         * 挂起到收到通知或超时
+         *
+         * @param deadline 超时时间点 为0时一直等待
+         * @return true 收到通知 false 超时
+         */
+        boolean park(long deadline) {
+            while (state.get() == WAITING) {
+                //被中断时与超时相同
+                if (thread.isInterrupted()) {
+                    return !state.compareAndSet(WAITING, CANCELLED);
+                }
+                if (deadline == 0) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    //超时与通知同时发生时以通知为准
+                    return !state.compareAndSet(WAITING, CANCELLED);
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            return true;
+        }
+    }
+}
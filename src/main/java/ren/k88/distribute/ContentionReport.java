@@ -0,0 +1,78 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 锁、信号量竞争报告
+ * 原理：使用SCAN增量遍历 lock:stat:*、semaphore:stat:* 统计key，只保留前N个，不需要MONITOR也不会阻塞redis
+ */
+public class ContentionReport {
+    private DistributeBackend backend;
+
+    /**
+     * 实例化竞争报告
+     *
+     * @param jedisPool redis连接池
+     */
+    public ContentionReport(JedisPool jedisPool) {
+        this(new JedisDistributeBackend(jedisPool));
+    }
+
+    /**
+     * 实例化竞争报告
+     *
+     * @param backend 协调后端
+     */
+    public ContentionReport(DistributeBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * 获取失败次数最多的N个锁
+     *
+     * @param n 个数
+     */
+    public List<ContentionStat> topLocks(int n) {
+        return top(n, ContentionStat.BY_FAILED, DistributeKey.LOCK_PREFIX);
+    }
+
+    /**
+     * 获取失败次数最多的N个信号量
+     *
+     * @param n 个数
+     */
+    public List<ContentionStat> topSemaphores(int n) {
+        return top(n, ContentionStat.BY_FAILED, DistributeKey.SEMAPHORE_PREFIX);
+    }
+
+    /**
+     * 竞争最激烈的N个锁和信号量
+     *
+     * @param n          个数
+     * @param comparator 排序方式 如 ContentionStat.BY_FAILED
+     */
+    public List<ContentionStat> top(int n, Comparator<ContentionStat> comparator) {
+        return top(n, comparator, DistributeKey.LOCK_PREFIX, DistributeKey.SEMAPHORE_PREFIX);
+    }
+
+    private List<ContentionStat> top(int n, Comparator<ContentionStat> comparator, String... prefixes) {
+        //堆顶为当前前N个中排名最后的
+        PriorityQueue<ContentionStat> heap = new PriorityQueue<>(Math.max(1, n) + 1, comparator.reversed());
+        for (String prefix : prefixes) {
+            backend.scanStats(prefix + "stat:", stat -> {
+                heap.offer(stat);
+                if (heap.size() > n) {
+                    heap.poll();
+                }
+            });
+        }
+        List<ContentionStat> result = new ArrayList<>(heap);
+        result.sort(comparator);
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+package ren.k88.distribute;
+
+import java.util.Comparator;
+
+/**
+ * 锁、信号量竞争统计
+ * 由获得、释放脚本在同一次调用中原子累加，不增加额外请求
+ */
+public class ContentionStat {
+    /**
+     * 按获取失败次数排序 从多到少
+     */
+    public static final Comparator<ContentionStat> BY_FAILED = Comparator.comparingLong(ContentionStat::getFailed).thenComparingLong(ContentionStat::getWaiting).reversed();
+    /**
+     * 按等待线程数排序 从多到少
+     */
+    public static final Comparator<ContentionStat> BY_WAITING = Comparator.comparingLong(ContentionStat::getWaiting).thenComparingLong(ContentionStat::getFailed).reversed();
+    /**
+     * 按累计持有时间排序 从多到少
+     */
+    public static final Comparator<ContentionStat> BY_HOLD = Comparator.comparingLong(ContentionStat::getHoldMillis).reversed();
+
+    /**
+     * 统计key
+     */
+    private String statKey;
+    /**
+     * 获得次数
+     */
+    private long acquired;
+    /**
+     * 获取失败次数
+     */
+    private long failed;
+    /**
+     * 当前等待线程数
+     */
+    private long waiting;
+    /**
+     * 累计持有毫秒数
+     */
+    private long holdMillis;
+    /**
+     * 超过等待上限被拒绝的次数
+     */
+    private long shed;
+
+    public ContentionStat(String statKey, long acquired, long failed, long waiting, long holdMillis, long shed) {
+        this.statKey = statKey;
+        this.acquired = acquired;
+        this.failed = failed;
+        this.waiting = waiting;
+        this.holdMillis = holdMillis;
+        this.shed = shed;
+    }
+
+    public String getStatKey() {
+        return statKey;
+    }
+
+    /**
+     * 是否为信号量的统计
+     */
+    public boolean isSemaphore() {
+        return statKey.startsWith(DistributeKey.SEMAPHORE_PREFIX);
+    }
+
+    /**
+     * 锁、信号量名称
+     */
+    public String getName() {
+        String prefix = (isSemaphore() ? DistributeKey.SEMAPHORE_PREFIX : DistributeKey.LOCK_PREFIX) + "stat:";
+        return statKey.startsWith(prefix) ? statKey.substring(prefix.length()) : statKey;
+    }
+
+    public long getAcquired() {
+        return acquired;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getWaiting() {
+        return waiting;
+    }
+
+    public long getHoldMillis() {
+        return holdMillis;
+    }
+
+    public long getShed() {
+        return shed;
+    }
+
+    /**
+     * 平均持有毫秒数
+     */
+    public long getAvgHoldMillis() {
+        return acquired > 0 ? holdMillis / acquired : 0;
+    }
+
+    @Override
+    public String toString() {
+        return statKey + " acquired=" + acquired + " failed=" + failed + " waiting=" + waiting + " holdMillis=" + holdMillis + " shed=" + shed;
+    }
+}
@@ -0,0 +1,81 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 任务分发器测试 多个分发器共享信号量执行任务 统计最大并发数
+ * 开始前模拟一个节点领取任务后意外关闭 其任务在租约到期后被其他节点重新执行
+ */
+public class DispatcherTest {
+    //分发器个数 模拟多个节点
+    public static int nodes = 3;
+    //每个分发器执行线程数
+    public static int workers = 8;
+    //信号量个数
+    public static int permits = 5;
+    //任务个数
+    public static int tasks = 200;
+    //任务耗时毫秒数
+    public static long taskMillis = 20;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(200);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        String name = "dispatch:test:" + System.currentTimeMillis();
+        DistributeDispatcher producer = new DistributeDispatcher(backend, name, permits);
+        List<String> payloads = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            payloads.add("task-" + i);
+        }
+        producer.submitAll(payloads);
+        //模拟节点领取两个任务后意外关闭 租约1秒
+        List<String> lost = backend.claimTasks(producer.getKey(), producer.getDispatchKey(), permits, 2, 1000);
+        System.out.println("意外关闭的节点领取任务【" + lost + "】 可用信号量【" + producer.getSemaphore() + "】");
+
+        CountDownLatch countDownLatch = new CountDownLatch(tasks);
+        AtomicInteger current = new AtomicInteger();
+        AtomicInteger max = new AtomicInteger();
+        long begin = System.currentTimeMillis();
+        List<DistributeDispatcher> dispatchers = new ArrayList<>();
+        for (int i = 0; i < nodes; i++) {
+            DistributeDispatcher dispatcher = new DistributeDispatcher(backend, name, permits);
+            dispatcher.start(workers, payload -> {
+                int c = current.incrementAndGet();
+                max.accumulateAndGet(c, Math::max);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(taskMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                current.decrementAndGet();
+                countDownLatch.countDown();
+            });
+            dispatchers.add(dispatcher);
+        }
+        countDownLatch.await();
+        long cost = System.currentTimeMillis() - begin;
+        for (DistributeDispatcher dispatcher : dispatchers) {
+            dispatcher.shutdown();
+        }
+        //等待最后的任务归还信号量
+        TimeUnit.MILLISECONDS.sleep(200);
+        System.out.println("【" + nodes + "】个分发器 各【" + workers + "】个执行线程 信号量【" + permits + "】 执行【" + tasks + "】个任务 执行时间【"
+                + cost + "】毫秒 最大并发【" + max.get() + "】 剩余任务【" + producer.getQueued() + "】 可用信号量【" + producer.getSemaphore() + "】");
+    }
+}
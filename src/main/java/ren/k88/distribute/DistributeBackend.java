@@ -0,0 +1,294 @@
+package ren.k88.distribute;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 分布式锁、信号量的协调后端
+ * 将锁和信号量依赖的原子操作抽象出来，锁和信号量只关心语义，不直接操作redis
+ * 实现：JedisDistributeBackend 使用redis实现，可多节点共享；LocalDistributeBackend 使用jvm内存实现，只适用于单节点和测试
+ * 获得、释放时同时累加竞争统计（获得次数、失败次数、等待线程数、持有时间），不增加额外请求
+ */
+public interface DistributeBackend {
+
+    /**
+     * 生成新的线程标识序号
+     *
+     * @return 在当前后端中唯一的序号
+     */
+    long nextThreadFlag();
+
+    /**
+     * 尝试获得锁 如果自身持有锁则可以再次获得
+     *
+     * @param key          锁key
+     * @param flag         线程标识
+     * @param expireSecond 持有锁超时秒数 必须大于0 由 DistributeLock 保证
+     * @param waiting      是否为等待中的重试 首次失败时以线程标识加入等待队列 等待中失败时续期等待租约 等待后成功时离开
+     * @param limit        等待上限 只在首次失败时判断
+     * @return true 获得成功 false 锁被其他线程持有
+     * @throws DistributeRejectedException 首次失败且超过等待上限 未加入等待
+     */
+    boolean tryLock(DistributeKey key, String flag, int expireSecond, boolean waiting, WaitLimit limit);
+
+    /**
+     * 释放锁 锁完全释放时通知一个等待线程
+     *
+     * @param key        锁key
+     * @param flag       线程标识
+     * @param holdMillis 本次持有毫秒数 计入统计
+     * @return 0 未持有锁 1 锁已完全释放 2 重入次数减一 锁仍被持有
+     */
+    int unlock(DistributeKey key, String flag, int holdMillis);
+
+    /**
+     * 阻塞等待释放通知
+     *
+     * @param key        锁、信号量key
+     * @param waitSecond 等待超时秒数 小于等于0时一直等待
+     * @return true 收到通知 false 等待超时
+     */
+    boolean await(DistributeKey key, int waitSecond);
+
+    /**
+     * 阻塞等待多个key中任意一个的释放通知 只取走一个通知
+     *
+     * @param keys       锁、信号量key 分片时需在同一个分片上
+     * @param waitSecond 等待超时秒数 小于等于0时一直等待
+     * @return 收到通知的key的下标 超时时为-1
+     */
+    int awaitAny(DistributeKey[] keys, int waitSecond);
+
+    /**
+     * 放入n个释放通知 用于归还已取走但没有线程使用的通知
+     *
+     * @param key 锁、信号量key
+     * @param n   通知个数
+     */
+    void notifyWaiters(DistributeKey key, int n);
+
+    /**
+     * 设置通知列表超时 超时后未取走的通知一并删除
+     *
+     * @param key          锁、信号量key
+     * @param expireSecond 超时秒数 小于等于0时立即删除
+     */
+    void expireNotify(DistributeKey key, int expireSecond);
+
+    /**
+     * 放弃等待 离开等待队列
+     *
+     * @param key  锁、信号量key
+     * @param flag 加入等待时的线程标识
+     */
+    void cancelWait(DistributeKey key, String flag);
+
+    /**
+     * 尝试获得信号量
+     *
+     * @param key          信号量key
+     * @param flag         线程标识 等待时作为等待队列成员
+     * @param n            信号量个数
+     * @param permits      最大信号量个数
+     * @param expireSecond 信号量超时秒数 小于等于0时不超时
+     * @param waiting      是否为等待中的重试 首次失败时加入等待队列 等待中失败时续期等待租约 等待后成功时离开
+     * @param limit        等待上限 只在首次失败时判断
+     * @return true 获得成功 false 可用信号量不足
+     * @throws DistributeRejectedException 首次失败且超过等待上限 未加入等待
+     */
+    boolean tryAcquire(DistributeKey key, String flag, int n, int permits, int expireSecond, boolean waiting, WaitLimit limit);
+
+    /**
+     * 尝试获得信号量 最大信号量个数从共享的限制key中原子读取
+     *
+     * @param key          信号量key
+     * @param flag         线程标识 等待时作为等待队列成员
+     * @param n            信号量个数
+     * @param initLimit    限制key不存在时的初始最大信号量个数
+     * @param expireSecond 信号量超时秒数 小于等于0时不超时
+     * @param waiting      是否为等待中的重试 首次失败时加入等待队列 等待中失败时续期等待租约 等待后成功时离开
+     * @param limit        等待上限 只在首次失败时判断
+     * @return true 获得成功 false 可用信号量不足
+     * @throws DistributeRejectedException 首次失败且超过等待上限 未加入等待
+     */
+    boolean tryAcquireLimited(DistributeKey key, String flag, int n, int initLimit, int expireSecond, boolean waiting, WaitLimit limit);
+
+    /**
+     * 获得共享的最大信号量个数
+     *
+     * @param key       信号量key
+     * @param initLimit 限制key不存在时的初始最大信号量个数
+     * @return 当前最大信号量个数
+     */
+    int getLimit(DistributeKey key, int initLimit);
+
+    /**
+     * 当共享的最大信号量个数等于期望值时更新
+     *
+     * @param key       信号量key
+     * @param initLimit 限制key不存在时的初始最大信号量个数
+     * @param expect    期望的当前值
+     * @param update    新值
+     * @return 操作后的最大信号量个数 与update不同时说明已被其他节点修改
+     */
+    int compareAndSetLimit(DistributeKey key, int initLimit, int expect, int update);
+
+    /**
+     * 释放信号量 并通知n个等待线程
+     *
+     * @param key        信号量key
+     * @param n          信号量个数
+     * @param holdMillis 本次持有毫秒数 计入统计
+     * @return 释放后已使用的信号量个数
+     */
+    int release(DistributeKey key, int n, int holdMillis);
+
+    /**
+     * 释放所有信号量 并按已使用的个数通知等待线程
+     *
+     * @param key 信号量key
+     * @return 释放的信号量个数
+     */
+    int releaseAll(DistributeKey key);
+
+    /**
+     * 获得已使用的信号量个数
+     *
+     * @param key 信号量key
+     * @return 已使用个数 不存在时为0
+     */
+    int getUsed(DistributeKey key);
+
+    /**
+     * 批量获得已使用的信号量个数 不加锁 结果供参考
+     *
+     * @param keys 信号量key
+     * @return 与key一一对应的已使用个数 不存在时为0
+     */
+    int[] getUsed(DistributeKey[] keys);
+
+    /**
+     * 尝试获得分优先级的信号量 失败时进入该优先级的等待队列
+     *
+     * @param key                信号量key
+     * @param priorityKeys       各优先级的等待队列和通知列表
+     * @param priority           优先级 0为最高
+     * @param flag               线程标识
+     * @param permits            最大信号量个数
+     * @param expireSecond       信号量超时秒数 已使用个数从0增加时设置 超时后全部释放 小于等于0时不超时
+     * @param starvationInterval 防饥饿间隔 小于等于0时不开启
+     * @param leaseMillis        等待租约毫秒数 超过后未续期的等待线程被移除
+     * @return true 获得成功 false 进入等待
+     */
+    boolean tryAcquirePriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int permits, int expireSecond, int starvationInterval, int leaseMillis);
+
+    /**
+     * 释放分优先级的信号量 逐个转交给最高优先级的等待线程并通知
+     *
+     * @param key                信号量key
+     * @param priorityKeys       各优先级的等待队列和通知列表
+     * @param n                  信号量个数
+     * @param starvationInterval 防饥饿间隔 小于等于0时不开启
+     * @param holdMillis         本次持有毫秒数 计入统计
+     * @return 释放后已使用的信号量个数
+     */
+    int releasePriority(DistributeKey key, DistributeKey[] priorityKeys, int n, int starvationInterval, int holdMillis);
+
+    /**
+     * 离开分优先级信号量的等待队列 多余的预留转交给其他等待线程
+     *
+     * @param key                信号量key
+     * @param priorityKeys       各优先级的等待队列和通知列表
+     * @param priority           优先级
+     * @param flag               线程标识
+     * @param starvationInterval 防饥饿间隔 小于等于0时不开启
+     */
+    void cancelWaitPriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int starvationInterval);
+
+    /**
+     * 提交任务 放入待分发队列尾部 并通知等待任务的分发线程
+     *
+     * @param dispatchKey 任务分发key
+     * @param ids         任务id
+     * @param payloads    任务内容 与id一一对应
+     * @return 提交后待分发的任务个数
+     */
+    int submitTasks(DistributeKey dispatchKey, String[] ids, String[] payloads);
+
+    /**
+     * 原子地获得信号量并领取任务 每领取一个任务占用一个信号量 并记录执行租约
+     * 领取前先回收租约到期的任务：归还信号量 任务放回队列头部重新分发
+     *
+     * @param key         信号量key
+     * @param dispatchKey 任务分发key
+     * @param permits     最大信号量个数
+     * @param max         最多领取的任务个数
+     * @param leaseMillis 执行租约毫秒数 超过后未续期的任务被回收
+     * @return 依次为任务id和任务内容 没有可用信号量或任务时为空
+     */
+    List<String> claimTasks(DistributeKey key, DistributeKey dispatchKey, int permits, int max, long leaseMillis);
+
+    /**
+     * 完成任务 归还信号量 并通知等待的线程
+     * 租约已到期被回收的任务不再归还信号量
+     *
+     * @param key         信号量key
+     * @param dispatchKey 任务分发key
+     * @param ids         任务id
+     * @param holdMillis  执行毫秒数 计入统计
+     * @return 归还的信号量个数
+     */
+    int completeTasks(DistributeKey key, DistributeKey dispatchKey, String[] ids, int holdMillis);
+
+    /**
+     * 续期执行中任务的租约
+     *
+     * @param dispatchKey 任务分发key
+     * @param ids         任务id
+     * @param leaseMillis 执行租约毫秒数
+     * @return 续期成功的个数 租约已到期被回收的任务不会续期
+     */
+    int renewTasks(DistributeKey dispatchKey, String[] ids, long leaseMillis);
+
+    /**
+     * 获得待分发的任务个数
+     *
+     * @param dispatchKey 任务分发key
+     */
+    int getQueued(DistributeKey dispatchKey);
+
+    /**
+     * 竞选领导者或续期租约 没有领导者时成为领导者并递增任期
+     *
+     * @param key         选举key
+     * @param flag        候选者标识
+     * @param leaseMillis 租约毫秒数
+     * @return 大于0时自身为领导者 值为任期；小于0时为现任领导者租约剩余毫秒数的相反数
+     */
+    long campaign(DistributeKey key, String flag, long leaseMillis);
+
+    /**
+     * 让出领导者 并通知一个等待的候选者
+     *
+     * @param key  选举key
+     * @param flag 候选者标识
+     * @return true 已让出 false 自身不是领导者
+     */
+    boolean resign(DistributeKey key, String flag);
+
+    /**
+     * 获得现任领导者
+     *
+     * @param key 选举key
+     * @return 领导者的候选者标识 没有领导者时为null
+     */
+    String getLeader(DistributeKey key);
+
+    /**
+     * 遍历竞争统计
+     *
+     * @param statKeyPrefix 统计key前缀 如 lock:stat:
+     * @param consumer      统计处理
+     */
+    void scanStats(String statKeyPrefix, Consumer<ContentionStat> consumer);
+}
@@ -0,0 +1,362 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 受分布式信号量限制的任务分发器
+ * 原理：任务放入redis中的待分发队列，分发线程在lua脚本中原子地获得信号量并领取任务，每个任务占用一个信号量，整批领取后交给本地的少量执行线程，
+ * 任务完成时归还信号量并通知；信号量个数与同名的DistributeSemaphore共享，所有节点的并发执行数不超过信号量个数，等待时只有分发线程阻塞
+ * 执行中的任务有租约，续期线程每三分之一租约续期一次，与分发线程的阻塞无关，停止领取后续期到已领取的任务全部执行完；节点意外关闭时租约到期，下一次领取时归还信号量并把任务放回队列头部重新分发
+ * 问题：租约到期后任务可能被重复执行（至少一次），任务需要幂等
+ */
+public class DistributeDispatcher {
+    /**
+     * 默认每次最多领取的任务个数
+     */
+    private static int BATCH_SIZE = 10;
+    /**
+     * 默认执行租约秒数
+     */
+    private static int LEASE_SECOND = 30;
+    /**
+     * 分发线程单次阻塞等待的秒数 醒来后重试
+     */
+    private static int WAIT_CHUNK_SECOND = 1;
+    /**
+     * 提交任务 lua脚本 返回待分发的任务个数
+     * 参数：1 队列、2 任务hash、3 分发通知列表，之后依次为任务id和任务内容
+     */
+    public static String SUBMIT_SCRIPT = "for i = 4, #KEYS, 2 do redis.call('HSET',KEYS[2],KEYS[i],KEYS[i+1]);redis.call('RPUSH',KEYS[1],KEYS[i]);end "
+            + "if redis.call('LLEN',KEYS[3]) == 0 then redis.call('RPUSH',KEYS[3],'ok');end return redis.call('LLEN',KEYS[1])";
+    /**
+     * 领取任务 lua脚本 先回收租约到期的任务 再在有可用信号量时逐个领取 返回依次为任务id和任务内容的列表
+     * 参数：1 信号量key、2 队列、3 任务hash、4 租约有序集合、5 统计key、6 最大信号量个数、7 最多领取个数、8 当前毫秒、9 租约到期毫秒
+     */
+    public static String CLAIM_SCRIPT = "local e = redis.call('ZRANGEBYSCORE',KEYS[4],'-inf',KEYS[8]);"
+            + "for _, id in ipairs(e) do redis.call('ZREM',KEYS[4],id);if redis.call('DECR',KEYS[1]) < 0 then redis.call('SET',KEYS[1],0);end if redis.call('HEXISTS',KEYS[3],id) == 1 then redis.call('LPUSH',KEYS[2],id);end end "
+            + "local c = tonumber(redis.call('GET',KEYS[1]) or '0');if c < 0 then c = 0;redis.call('SET',KEYS[1],0);end "
+            + "local p = tonumber(KEYS[6]);local m = tonumber(KEYS[7]);local n = 0;local r = {};"
+            + "while c < p and n < m do local id = redis.call('LPOP',KEYS[2]);if not id then break;end local v = redis.call('HGET',KEYS[3],id);"
+            + "if v then c = redis.call('INCR',KEYS[1]);redis.call('ZADD',KEYS[4],KEYS[9],id);n = n + 1;r[2*n-1] = id;r[2*n] = v;end end "
+            + "if n > 0 then redis.call('HINCRBY',KEYS[5],'acquired',n);" + DistributeKey.expireStat("KEYS[5]") + "end return r";
+    /**
+     * 完成任务 lua脚本 只为仍持有租约的任务归还信号量 返回归还个数
+     * 参数：1 信号量key、2 任务hash、3 租约有序集合、4 统计key、5 执行毫秒数、6 分发通知列表，之后为任务id
+     */
+    public static String COMPLETE_SCRIPT = "local n = 0;for i = 7, #KEYS do if redis.call('ZREM',KEYS[3],KEYS[i]) == 1 then n = n + 1;end redis.call('HDEL',KEYS[2],KEYS[i]);end "
+            + "if KEYS[5] ~= '0' then redis.call('HINCRBY',KEYS[4],'hold',KEYS[5]);" + DistributeKey.expireStat("KEYS[4]") + "end "
+            + "if n > 0 then if redis.call('DECRBY',KEYS[1],n) < 0 then redis.call('DEL',KEYS[1]);end if redis.call('LLEN',KEYS[6]) == 0 then redis.call('RPUSH',KEYS[6],'ok');end end return n";
+    /**
+     * 续期租约 lua脚本 只续期仍在租约有序集合中的任务 返回续期个数
+     * 参数：1 租约有序集合、2 租约到期毫秒，之后为任务id
+     */
+    public static String RENEW_SCRIPT = "local n = 0;for i = 3, #KEYS do if redis.call('ZSCORE',KEYS[1],KEYS[i]) then redis.call('ZADD',KEYS[1],KEYS[2],KEYS[i]);n = n + 1;end end return n";
+
+    /**
+     * 信号量个数
+     */
+    private int permits;
+    private DistributeBackend backend;
+    /**
+     * redis中信号量key 与同名的DistributeSemaphore相同
+     */
+    private DistributeKey key;
+    /**
+     * redis中待分发队列、任务内容、执行租约、分发通知列表
+     */
+    private DistributeKey dispatchKey;
+    private int batchSize = BATCH_SIZE;
+    private long leaseMillis = TimeUnit.SECONDS.toMillis(LEASE_SECOND);
+    /**
+     * 任务id前缀 在后端中唯一
+     */
+    private final String idPrefix;
+    private final AtomicLong idSeq = new AtomicLong();
+    /**
+     * 本节点执行中的任务id和开始时间
+     */
+    private final ConcurrentMap<String, Long> running = new ConcurrentHashMap<>();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile boolean shutdown;
+    private Thread fetcher;
+    private ExecutorService executor;
+    /**
+     * 续期线程 执行线程全部退出后停止
+     */
+    private ScheduledExecutorService renewer;
+
+    /**
+     * 实例化任务分发器
+     *
+     * @param jedisPool         redis连接池
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param permits           信号量个数
+     */
+    public DistributeDispatcher(JedisPool jedisPool, String redisSemaphoreKey, int permits) {
+        this(new JedisDistributeBackend(jedisPool), redisSemaphoreKey, permits);
+    }
+
+    /**
+     * 实例化任务分发器
+     *
+     * @param backend           协调后端
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param permits           信号量个数
+     */
+    public DistributeDispatcher(DistributeBackend backend, String redisSemaphoreKey, int permits) {
+        this.backend = backend;
+        this.key = DistributeKey.semaphore(redisSemaphoreKey);
+        this.dispatchKey = DistributeKey.dispatch(redisSemaphoreKey);
+        this.permits = permits > 0 ? permits : 1;
+        this.idPrefix = backend.nextThreadFlag() + ":";
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param payload 任务内容
+     * @return 任务id
+     */
+    public String submit(String payload) {
+        String id = idPrefix + idSeq.incrementAndGet();
+        backend.submitTasks(dispatchKey, new String[]{id}, new String[]{payload});
+        return id;
+    }
+
+    /**
+     * 批量提交任务 一次请求
+     *
+     * @param payloads 任务内容
+     * @return 任务id
+     */
+    public String[] submitAll(List<String> payloads) {
+        String[] ids = new String[payloads.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = idPrefix + idSeq.incrementAndGet();
+        }
+        if (ids.length > 0) {
+            backend.submitTasks(dispatchKey, ids, payloads.toArray(new String[0]));
+        }
+        return ids;
+    }
+
+    /**
+     * 开始在本节点执行任务 一个分发线程领取任务 交给执行线程
+     *
+     * @param workers 执行线程数 即本节点最大并发数
+     * @param handler 任务处理 抛出异常时任务同样视为完成
+     */
+    public synchronized void start(int workers, Consumer<String> handler) {
+        if (fetcher != null) {
+            throw new IllegalStateException("分发器已启动");
+        }
+        int n = workers > 0 ? workers : 1;
+        String name = dispatchKey.getName();
+        AtomicLong threadNum = new AtomicLong();
+        executor = Executors.newFixedThreadPool(n, r -> {
+            Thread t = new Thread(r, "dispatch-" + name + "-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dispatch-renew-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, leaseMillis / 3);
+        renewer.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+        fetcher = new Thread(() -> fetch(n, handler), "dispatch-" + name);
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * 停止领取任务 已领取的任务执行完后执行线程退出 执行期间继续续期租约
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * 设置每次最多领取的任务个数
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize > 0 ? batchSize : 1;
+    }
+
+    /**
+     * 设置执行租约秒数 执行时间可以超过租约 续期线程每三分之一租约续期一次 开始执行前设置
+     */
+    public void setLeaseSecond(int leaseSecond) {
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSecond > 0 ? leaseSecond : LEASE_SECOND);
+    }
+
+    /**
+     * 获得待分发的任务个数
+     */
+    public int getQueued() {
+        return backend.getQueued(dispatchKey);
+    }
+
+    /**
+     * 获得可用信号量 非原子操作 结果供参考
+     */
+    public int getSemaphore() {
+        return permits - backend.getUsed(key);
+    }
+
+    /**
+     * 获得本节点执行中的任务个数
+     */
+    public int getRunning() {
+        return running.size();
+    }
+
+    /**
+     * 获得本节点已完成的任务个数
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * 获得本节点处理时抛出异常的任务个数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 获得redis中的信号量key
+     */
+    public DistributeKey getKey() {
+        return key;
+    }
+
+    /**
+     * 获得redis中的任务分发key
+     */
+    public DistributeKey getDispatchKey() {
+        return dispatchKey;
+    }
+
+    /**
+     * 分发线程 先占用本地执行线程 再按空闲执行线程数领取任务 没有任务或信号量时阻塞在分发通知列表上
+     */
+    private void fetch(int workers, Consumer<String> handler) {
+        Semaphore slots = new Semaphore(workers);
+        try {
+            while (!shutdown) {
+                try {
+                    //本地执行线程都在忙时在本地等待 不占用分发通知
+                    if (!slots.tryAcquire(WAIT_CHUNK_SECOND, TimeUnit.SECONDS)) {
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                try {
+                    dispatch(slots, handler);
+                } catch (RuntimeException e) {
+                    //分发线程不能退出 否则本节点不再领取任务
+                    sleepQuietly();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 领取一批任务交给执行线程 调用前已占用一个本地执行线程
+     */
+    private void dispatch(Semaphore slots, Consumer<String> handler) {
+        int free = 1 + slots.drainPermits();
+        List<String> claimed;
+        try {
+            claimed = backend.claimTasks(key, dispatchKey, permits, Math.min(free, batchSize), leaseMillis);
+        } catch (RuntimeException e) {
+            slots.release(free);
+            sleepQuietly();
+            return;
+        }
+        int n = claimed.size() / 2;
+        slots.release(free - n);
+        for (int i = 0; i < n; i++) {
+            String id = claimed.get(2 * i);
+            String payload = claimed.get(2 * i + 1);
+            running.put(id, System.nanoTime());
+            executor.execute(() -> {
+                try {
+                    handler.accept(payload);
+                } catch (Throwable e) {
+                    failedCount.incrementAndGet();
+                } finally {
+                    complete(id);
+                    slots.release();
+                }
+            });
+        }
+        if (n == 0) {
+            //没有任务或信号量 等待提交或完成的通知
+            try {
+                backend.await(dispatchKey, WAIT_CHUNK_SECOND);
+            } catch (RuntimeException e) {
+                sleepQuietly();
+            }
+        }
+    }
+
+    /**
+     * 完成任务 归还信号量
+     */
+    private void complete(String id) {
+        Long start = running.remove(id);
+        int holdMillis = start == null ? 0 : (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        try {
+            backend.completeTasks(key, dispatchKey, new String[]{id}, holdMillis);
+        } catch (RuntimeException e) {
+            //归还失败时等待租约到期后回收
+        }
+        completedCount.incrementAndGet();
+    }
+
+    /**
+     * 续期本节点执行中任务的租约 执行线程全部退出后停止续期线程
+     */
+    private void renew() {
+        if (executor.isTerminated()) {
+            renewer.shutdown();
+            return;
+        }
+        if (running.isEmpty()) {
+            return;
+        }
+        try {
+            backend.renewTasks(dispatchKey, running.keySet().toArray(new String[0]), leaseMillis);
+        } catch (RuntimeException e) {
+            //续期失败时下次重试
+        }
+    }
+
+    private static void sleepQuietly() {
+        try {
+            TimeUnit.SECONDS.sleep(WAIT_CHUNK_SECOND);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
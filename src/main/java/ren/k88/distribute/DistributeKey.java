@@ -0,0 +1,196 @@
+package ren.k88.distribute;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * 锁、信号量在redis中使用的一组key
+ * 同一个名称对应：value 状态、list 释放通知列表、stat 竞争统计、limit 共享的最大信号量个数、wait 等待队列、
+ * queue 待分发任务id列表、task 任务内容、running 执行中任务的租约、epoch 领导者任期、reserve 分优先级信号量的预留
+ * 在锁、信号量实例化时生成一次，二进制编码也只生成一次
+ * 分片时按分片名称路由，同一个锁、信号量派生出的key使用相同的分片名称
+ */
+public class DistributeKey {
+    /**
+     * 锁 redis key前缀
+     */
+    public static String LOCK_PREFIX = "lock:";
+    /**
+     * 信号量 redis key前缀
+     */
+    public static String SEMAPHORE_PREFIX = "semaphore:";
+    /**
+     * 任务分发 redis key前缀
+     */
+    public static String DISPATCH_PREFIX = "dispatch:";
+    /**
+     * 领导者选举 redis key前缀
+     */
+    public static String LEADER_PREFIX = "leader:";
+    /**
+     * 竞争统计保留秒数 统计key每次更新时续期 超过该时间没有更新时删除
+     */
+    public static final int STAT_EXPIRE_SECOND = 24 * 3600;
+    /**
+     * 名称
+     */
+    private final String name;
+    private final String prefix;
+    /**
+     * 分片名称
+     */
+    private final String shardName;
+    private final String valueKey;
+    private final String listKey;
+    private final String statKey;
+    private final String limitKey;
+    private final String waitKey;
+    private final String queueKey;
+    private final String taskKey;
+    private final String runningKey;
+    private final String epochKey;
+    private final String reserveKey;
+    final byte[] valueBytes;
+    final byte[] listBytes;
+    final byte[] statBytes;
+    final byte[] limitBytes;
+    final byte[] waitBytes;
+    final byte[] queueBytes;
+    final byte[] taskBytes;
+    final byte[] runningBytes;
+    final byte[] epochBytes;
+    final byte[] reserveBytes;
+
+    private DistributeKey(String prefix, String name, String shardName) {
+        this.name = name;
+        this.prefix = prefix;
+        this.shardName = shardName;
+        this.valueKey = prefix + "value:" + name;
+        this.listKey = prefix + "list:" + name;
+        this.statKey = prefix + "stat:" + name;
+        this.limitKey = prefix + "limit:" + name;
+        this.waitKey = prefix + "wait:" + name;
+        this.queueKey = prefix + "queue:" + name;
+        this.taskKey = prefix + "task:" + name;
+        this.runningKey = prefix + "running:" + name;
+        this.epochKey = prefix + "epoch:" + name;
+        this.reserveKey = prefix + "reserve:" + name;
+        this.valueBytes = SafeEncoder.encode(valueKey);
+        this.listBytes = SafeEncoder.encode(listKey);
+        this.statBytes = SafeEncoder.encode(statKey);
+        this.limitBytes = SafeEncoder.encode(limitKey);
+        this.waitBytes = SafeEncoder.encode(waitKey);
+        this.queueBytes = SafeEncoder.encode(queueKey);
+        this.taskBytes = SafeEncoder.encode(taskKey);
+        this.runningBytes = SafeEncoder.encode(runningKey);
+        this.epochBytes = SafeEncoder.encode(epochKey);
+        this.reserveBytes = SafeEncoder.encode(reserveKey);
+    }
+
+    /**
+     * 锁的key
+     *
+     * @param name 锁名称
+     */
+    public static DistributeKey lock(String name) {
+        return new DistributeKey(LOCK_PREFIX, name, name);
+    }
+
+    /**
+     * 信号量的key
+     *
+     * @param name 信号量名称
+     */
+    public static DistributeKey semaphore(String name) {
+        return new DistributeKey(SEMAPHORE_PREFIX, name, name);
+    }
+
+    /**
+     * 任务分发的key
+     *
+     * @param name 分发器名称
+     */
+    public static DistributeKey dispatch(String name) {
+        return new DistributeKey(DISPATCH_PREFIX, name, name);
+    }
+
+    /**
+     * 领导者选举的key
+     *
+     * @param name 选举名称
+     */
+    public static DistributeKey leader(String name) {
+        return new DistributeKey(LEADER_PREFIX, name, name);
+    }
+
+    /**
+     * 派生的key 名称和分片名称不变 前缀后增加一段 如 semaphore:priority:0:wait:名称
+     * 派生段位于类型的位置 不是固定的类型 不会与任何名称的key冲突
+     *
+     * @param segment 派生段 不能是固定的类型
+     */
+    DistributeKey child(String segment) {
+        return new DistributeKey(prefix + segment + ":", name, shardName);
+    }
+
+    /**
+     * 统计key续期 lua语句 在更新统计的脚本中使用
+     *
+     * @param statKey 脚本中的统计key 如 KEYS[4]
+     */
+    static String expireStat(String statKey) {
+        return "redis.call('EXPIRE'," + statKey + "," + STAT_EXPIRE_SECOND + ");";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getShardName() {
+        return shardName;
+    }
+
+    public String getValueKey() {
+        return valueKey;
+    }
+
+    public String getListKey() {
+        return listKey;
+    }
+
+    public String getStatKey() {
+        return statKey;
+    }
+
+    public String getLimitKey() {
+        return limitKey;
+    }
+
+    public String getWaitKey() {
+        return waitKey;
+    }
+
+    public String getQueueKey() {
+        return queueKey;
+    }
+
+    public String getTaskKey() {
+        return taskKey;
+    }
+
+    public String getRunningKey() {
+        return runningKey;
+    }
+
+    public String getEpochKey() {
+        return epochKey;
+    }
+
+    public String getReserveKey() {
+        return reserveKey;
+    }
+
+    @Override
+    public String toString() {
+        return valueKey;
+    }
+}
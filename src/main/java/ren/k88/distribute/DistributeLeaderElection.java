@@ -0,0 +1,261 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * 基于租约的领导者选举
+ * 原理：领导者标识保存在 leader:value:<key> 中并设置毫秒级租约，领导者每三分之一租约续期一次；没有领导者时第一个竞选的候选者成为领导者，
+ * 任期 leader:epoch:<key> 加一。其他候选者不轮询，阻塞在通知列表上，直到领导者让出时被通知，或现任租约到期后醒来重新竞选，
+ * 每个候选者每个租约周期只有几次请求，意外关闭的领导者最多一个租约后被接管
+ * 任期只增不减，可作为防护令牌（fencing token）随写操作一起传给下游，下游拒绝比已见过的任期小的写入，
+ * 避免长时间停顿后租约已到期的旧领导者继续写入
+ */
+public class DistributeLeaderElection {
+    /**
+     * 默认租约毫秒数
+     */
+    private static int LEASE_MILLIS = 3000;
+    /**
+     * 竞选或续期 lua脚本 自身是领导者时续期并返回任期，没有领导者时成为领导者并返回新任期，否则返回现任租约剩余毫秒数的相反数
+     * 四个参数：领导者key、任期key、候选者标识、租约毫秒数
+     */
+    public static String CAMPAIGN_SCRIPT = "local v = redis.call('GET',KEYS[1]);if v and v ~= KEYS[3] then local t = redis.call('PTTL',KEYS[1]);if t < 1 then t = 1;end return -t;end "
+            + "local e = tonumber(redis.call('GET',KEYS[2]));if not v or not e then e = redis.call('INCR',KEYS[2]);end redis.call('SET',KEYS[1],KEYS[3],'PX',KEYS[4]);return e";
+    /**
+     * 让出领导者 lua脚本 并通知一个等待的候选者
+     * 三个参数：领导者key、通知列表、候选者标识 返回1时已让出
+     */
+    public static String RESIGN_SCRIPT = "if redis.call('GET',KEYS[1]) ~= KEYS[3] then return 0;end redis.call('DEL',KEYS[1]);if redis.call('LLEN',KEYS[2]) == 0 then redis.call('RPUSH',KEYS[2],'ok');end return 1";
+
+    private DistributeBackend backend;
+    /**
+     * redis中的选举key
+     */
+    private DistributeKey key;
+    /**
+     * 候选者标识 在后端中唯一
+     */
+    private final String candidateId;
+    private long leaseMillis = LEASE_MILLIS;
+    /**
+     * 当前任期 不是领导者时为0
+     */
+    private volatile long epoch;
+    /**
+     * 本地计算的租约到期时间 从发出续期请求前开始计算 比redis中的租约更早到期
+     */
+    private volatile long validUntil;
+    /**
+     * 发出的请求次数
+     */
+    private final AtomicLong requestCount = new AtomicLong();
+    private volatile boolean shutdown;
+    private volatile boolean resignOnShutdown = true;
+    private Thread elector;
+    private LongConsumer onGained;
+    private LongConsumer onLost;
+
+    /**
+     * 实例化领导者选举
+     *
+     * @param jedisPool redis连接池
+     * @param name      选举名称 同名的候选者竞选同一个领导者
+     */
+    public DistributeLeaderElection(JedisPool jedisPool, String name) {
+        this(new JedisDistributeBackend(jedisPool), name);
+    }
+
+    /**
+     * 实例化领导者选举
+     *
+     * @param backend 协调后端
+     * @param name    选举名称 同名的候选者竞选同一个领导者
+     */
+    public DistributeLeaderElection(DistributeBackend backend, String name) {
+        this.backend = backend;
+        this.key = DistributeKey.leader(name);
+        this.candidateId = "" + backend.nextThreadFlag();
+    }
+
+    /**
+     * 开始参与竞选 一个后台线程竞选、续期和等待
+     * 回调在选举线程中执行 需要尽快返回 否则会推迟续期
+     *
+     * @param onGained 成为领导者 参数为任期
+     * @param onLost   失去领导者 参数为失去的任期
+     */
+    public synchronized void start(LongConsumer onGained, LongConsumer onLost) {
+        if (elector != null) {
+            throw new IllegalStateException("选举已开始");
+        }
+        this.onGained = onGained;
+        this.onLost = onLost;
+        elector = new Thread(this::run, "leader-" + key.getName() + "-" + candidateId);
+        elector.setDaemon(true);
+        elector.start();
+    }
+
+    /**
+     * 退出竞选 是领导者时让出并通知一个等待的候选者
+     */
+    public void shutdown() {
+        shutdown(true);
+    }
+
+    /**
+     * 退出竞选
+     * 正在等待通知的候选者最多在一个租约后退出
+     *
+     * @param resign 是领导者时是否让出 false时不让出 租约到期后才被其他候选者接管
+     */
+    public void shutdown(boolean resign) {
+        resignOnShutdown = resign;
+        shutdown = true;
+        Thread t = elector;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * 自身是否为领导者 本地判断 不访问redis
+     */
+    public boolean isLeader() {
+        return epoch > 0 && System.nanoTime() - validUntil < 0;
+    }
+
+    /**
+     * 获得当前任期 作为防护令牌使用
+     *
+     * @return 任期 不是领导者时为0
+     */
+    public long getEpoch() {
+        long e = epoch;
+        return e > 0 && System.nanoTime() - validUntil < 0 ? e : 0;
+    }
+
+    /**
+     * 获得现任领导者的候选者标识
+     *
+     * @return 没有领导者时为null
+     */
+    public String getLeader() {
+        return backend.getLeader(key);
+    }
+
+    /**
+     * 获得自身的候选者标识
+     */
+    public String getCandidateId() {
+        return candidateId;
+    }
+
+    /**
+     * 获得发出的请求次数
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 设置租约毫秒数 开始竞选前设置 所有候选者需相同
+     */
+    public void setLeaseMillis(int leaseMillis) {
+        this.leaseMillis = leaseMillis > 0 ? leaseMillis : LEASE_MILLIS;
+    }
+
+    /**
+     * 获得redis中的选举key
+     */
+    public DistributeKey getKey() {
+        return key;
+    }
+
+    /**
+     * 选举线程 领导者每三分之一租约续期一次 其他候选者阻塞等待让出通知或现任租约到期
+     */
+    private void run() {
+        long renewNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis / 3);
+        while (!shutdown) {
+            long begin = System.nanoTime();
+            long r;
+            try {
+                requestCount.incrementAndGet();
+                r = backend.campaign(key, candidateId, leaseMillis);
+            } catch (RuntimeException e) {
+                //协调后端不可用时保持原状态 本地租约到期后视为失去领导者
+                if (epoch > 0 && begin - validUntil >= 0) {
+                    lost();
+                }
+                LockSupport.parkNanos(renewNanos);
+                continue;
+            }
+            if (r > 0) {
+                validUntil = begin + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+                //任期变化说明租约曾到期 旧任期已失去
+                if (r != epoch) {
+                    if (epoch > 0) {
+                        lost();
+                    }
+                    epoch = r;
+                    callback(onGained, r);
+                }
+                LockSupport.parkNanos(renewNanos);
+                continue;
+            }
+            if (epoch > 0) {
+                lost();
+            }
+            //阻塞到现任领导者让出或租约到期 BLPOP按秒超时 不足一秒的部分在本地等待 不占用连接
+            long remaining = -r;
+            if (remaining < 1000) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(remaining));
+                continue;
+            }
+            try {
+                requestCount.incrementAndGet();
+                backend.await(key, (int) (remaining / 1000));
+            } catch (RuntimeException e) {
+                LockSupport.parkNanos(renewNanos);
+            }
+        }
+        if (epoch > 0) {
+            if (resignOnShutdown) {
+                try {
+                    backend.resign(key, candidateId);
+                } catch (RuntimeException e) {
+                    //让出失败时等待租约到期
+                }
+            }
+            lost();
+        }
+    }
+
+    /**
+     * 失去领导者
+     */
+    private void lost() {
+        long e = epoch;
+        epoch = 0;
+        callback(onLost, e);
+    }
+
+    /**
+     * 执行回调 异常不影响选举线程
+     */
+    private static void callback(LongConsumer consumer, long epoch) {
+        if (consumer == null) {
+            return;
+        }
+        try {
+            consumer.accept(epoch);
+        } catch (RuntimeException e) {
+            //忽略回调异常
+        }
+    }
+}
@@ -1,12 +1,11 @@
 package ren.k88.distribute;
 
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 简单可重入分布式锁
@@ -15,6 +14,7 @@ import java.util.UUID;
  * 2.锁释放通知列表键 在所有请求处理完成后 不会自动删除 但在实际场景中可以接受
  * 解决方案一：使用BLPOP设置超时时间，使锁定时间可控，同时控制线程饥饿时间
  * 解决方案二：另起一个线程检测redis中所有的锁释放通知队列的长度，如果对应的锁标识为未赋值则通知释放锁消息
+ * 锁的原子操作通过 DistributeBackend 完成，默认使用redis实现，单节点或测试时可使用 LocalDistributeBackend
  * Created by jasonzhu on 2017/3/7.
  */
 public class DistributeLock {
@@ -22,14 +22,6 @@ public class DistributeLock {
      * 默认的线程标识
      */
     public static ThreadLocal<String> threadFlag = new ThreadLocal<>();
-    /**
-     * 线程标识
-     */
-    private static String THREAD_FLAG_NUM = "thread:flag:num";
-    /**
-     * 锁 redis key前缀
-     */
-    private static String REDIS_KEY = "lock:";
     /**
      * 锁默认超时时间
      */
@@ -38,25 +30,62 @@ public class DistributeLock {
      * 等待锁默认超时时间
      */
     private static int WAIT_SECOND = 60;
-    private JedisPool jedisPool;
+    private DistributeBackend backend;
+    /**
+     * redis中锁key、释放锁通知列表、竞争统计
+     */
+    private DistributeKey key;
+    /**
+     * 等待策略 默认阻塞等待
+     */
+    private WaitStrategy waitStrategy = BlockingWaitStrategy.INSTANCE;
+    /**
+     * 等待上限 默认不限制
+     */
+    private WaitLimit waitLimit = WaitLimit.NONE;
+    /**
+     * 当前线程获得锁的时间 用于统计持有时间
+     */
+    private final ThreadLocal<long[]> holdStart = ThreadLocal.withInitial(() -> new long[1]);
+    /**
+     * 等待策略单次等待的最长秒数 醒来后重新尝试 续期等待租约
+     */
+    static int WAIT_CHUNK_SECOND = 30;
     /**
-     * redis中锁key
+     * 等待租约毫秒数 比单次等待多5秒 等待线程意外退出或放弃等待失败时 租约到期后不再计入集群等待线程数
      */
-    private String redisLockKey;
+    static int WAIT_LEASE_MILLIS = (WAIT_CHUNK_SECOND + 5) * 1000;
     /**
-     * redis释放锁通知列表
+     * 等待队列 lua函数 锁和信号量共用 等待线程保存在有序集合中 分值为等待租约到期毫秒 到期的在每次调用时移除
+     * waited 移除到期的等待线程并把等待线程数写入统计 参数：统计key、等待队列、当前毫秒
+     * renew 加入等待或续期 参数：等待队列、线程标识、当前毫秒、租约到期毫秒
+     * join 首次获取失败时加入等待 超过等待上限时不加入 累加拒绝次数
+     * 参数：统计key、等待队列、线程标识、当前毫秒、租约到期毫秒、最大等待线程数、最大预计等待毫秒数、信号量个数 返回 0 已加入等待 -1 等待线程数超过上限 -3 预计等待时间超过上限
      */
-    private String redisListKey;
+    static String JOIN_WAIT = "local function waited(s, z, t) redis.call('ZREMRANGEBYSCORE',z,'-inf',t);local w = redis.call('ZCARD',z);redis.call('HSET',s,'waiting',w);return w;end "
+            + "local function renew(z, m, t, d) redis.call('ZADD',z,d,m);redis.call('PEXPIRE',z,d - t);end "
+            + "local function join(s, z, m, t, d, mw, mb, p) renew(z,m,t,d);local w = waited(s,z,t);local r = 0;"
+            + "if mw ~= '0' and w > tonumber(mw) then r = -1;elseif mb ~= '0' then local h = redis.call('HMGET',s,'acquired','hold');local a = tonumber(h[1] or '0');"
+            + "if a > 0 and w * tonumber(h[2] or '0') / a / p > tonumber(mb) then r = -3;end end "
+            + "if r < 0 then redis.call('ZREM',z,m);redis.call('HSET',s,'waiting',w - 1);redis.call('HINCRBY',s,'shed',1);end return r;end ";
     /**
-     * 获得锁 lua脚本
-     * 三个参数：key、线程标识、超时时间
+     * 获得锁 lua脚本 同时累加竞争统计 等待中的重试失败时续期等待租约 成功时离开等待队列
+     * 十个参数：key、线程标识、超时时间、统计key、是否为等待中的重试、最大等待线程数、最大预计等待毫秒数、等待队列、当前毫秒、等待租约到期毫秒
      */
-    public static String LOCK_SCRIPT = "local f = redis.call('HGET',KEYS[1],'flag');if type(f) == 'string' and f ~= KEYS[2] then return 0;end redis.call('HSET',KEYS[1],'flag',KEYS[2]);redis.call('EXPIRE',KEYS[1],KEYS[3]);local c = redis.call('HGET',KEYS[1],'count');if type(c) ~= 'string' or tonumber(c) < 0 then redis.call('HSET',KEYS[1],'count',1);else redis.call('HSET',KEYS[1],'count',c+1);end return 1";
+    public static String LOCK_SCRIPT = JOIN_WAIT + "local f = redis.call('HGET',KEYS[1],'flag');if type(f) == 'string' and f ~= KEYS[2] then redis.call('HINCRBY',KEYS[4],'failed',1);" + DistributeKey.expireStat("KEYS[4]")
+            + "if KEYS[5] == '0' then return join(KEYS[4],KEYS[8],KEYS[2],KEYS[9],KEYS[10],KEYS[6],KEYS[7],1);end renew(KEYS[8],KEYS[2],KEYS[9],KEYS[10]);waited(KEYS[4],KEYS[8],KEYS[9]);return 0;end "
+            + "redis.call('HSET',KEYS[1],'flag',KEYS[2]);redis.call('EXPIRE',KEYS[1],KEYS[3]);local c = redis.call('HGET',KEYS[1],'count');if type(c) ~= 'string' or tonumber(c) < 0 then redis.call('HSET',KEYS[1],'count',1);else redis.call('HSET',KEYS[1],'count',c+1);end "
+            + "redis.call('HINCRBY',KEYS[4],'acquired',1);" + DistributeKey.expireStat("KEYS[4]") + "if KEYS[5] == '1' then redis.call('ZREM',KEYS[8],KEYS[2]);end waited(KEYS[4],KEYS[8],KEYS[9]);return 1";
     /**
-     * 释放锁 lua脚本
-     * 两个参数：key、线程标识
+     * 释放锁 lua脚本 完全释放时累加持有时间
+     * 四个参数：key、线程标识、统计key、持有毫秒数
      */
-    public static String UNLOCK_SCRIPT = "local f = redis.call('HGET',KEYS[1],'flag');if type(f) ~= 'string' or (type(f) == 'string' and f ~= KEYS[2]) then return 0;end local c = redis.call('HGET',KEYS[1],'count');if type(c) ~= 'string' or tonumber(c) < 2 then redis.call('DEL',KEYS[1]);return 1;else redis.call('HSET',KEYS[1],'count',c-1);return 2;end";
+    public static String UNLOCK_SCRIPT = "local f = redis.call('HGET',KEYS[1],'flag');if type(f) ~= 'string' or (type(f) == 'string' and f ~= KEYS[2]) then return 0;end local c = redis.call('HGET',KEYS[1],'count');if type(c) ~= 'string' or tonumber(c) < 2 then redis.call('DEL',KEYS[1]);if KEYS[4] ~= '0' then redis.call('HINCRBY',KEYS[3],'hold',KEYS[4]);" + DistributeKey.expireStat("KEYS[3]") + "end return 1;else redis.call('HSET',KEYS[1],'count',c-1);return 2;end";
+    /**
+     * 放弃等待 lua脚本 锁和信号量共用 离开等待队列 返回剩余等待线程数
+     * 四个参数：统计key、等待队列、线程标识、当前毫秒
+     */
+    public static String CANCEL_WAIT_SCRIPT = JOIN_WAIT + "redis.call('ZREM',KEYS[2],KEYS[3]);local w = waited(KEYS[1],KEYS[2],KEYS[4]);" + DistributeKey.expireStat("KEYS[1]") + "return w";
 
     /**
      * 实例化简单分布式锁
@@ -74,9 +103,18 @@ public class DistributeLock {
      * @param redisLockKey 在redis中锁的key
      */
     public DistributeLock(JedisPool jedisPool, String redisLockKey) {
-        this.jedisPool = jedisPool;
-        this.redisLockKey = REDIS_KEY + "value:" + redisLockKey;
-        this.redisListKey = REDIS_KEY + "list:" + redisLockKey;
+        this(new JedisDistributeBackend(jedisPool), redisLockKey);
+    }
+
+    /**
+     * 实例化简单分布式锁
+     *
+     * @param backend      协调后端
+     * @param redisLockKey 在redis中锁的key
+     */
+    public DistributeLock(DistributeBackend backend, String redisLockKey) {
+        this.backend = backend;
+        this.key = DistributeKey.lock(redisLockKey);
     }
 
 
@@ -90,7 +128,7 @@ public class DistributeLock {
     /**
      * 获得锁
      *
-     * @param expireSecond 锁超时时间
+     * @param expireSecond 锁超时时间 小于等于0时使用默认值
      * @param waitSecond   锁等待时间
      * @param flag         线程标识
      */
@@ -120,42 +158,71 @@ public class DistributeLock {
     /**
      * 获得锁
      *
-     * @param expireSecond 持有锁超时秒数
+     * @param expireSecond 持有锁超时秒数 小于等于0时使用默认值
      * @param waitSecond   等待锁超时秒数
      * @param flag         线程标识
      * @return
      */
     public boolean tryLock(int expireSecond, int waitSecond, String flag) {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            //2017-03-16 修复递归会造成的 资源无限获取且需递归释放的问题
-            return tryLockInner(jedis, expireSecond, waitSecond, flag);
-        } finally {
-            jedis.close();
-        }
+        //2017-03-16 修复递归会造成的 资源无限获取且需递归释放的问题
+        return tryLockInner(expireSecond, waitSecond, flag, waitLimit);
+    }
+
+    /**
+     * 获得锁 需要等待时如果超过等待上限则立即拒绝
+     *
+     * @param expireSecond 持有锁超时秒数 小于等于0时使用默认值
+     * @param waitSecond   等待锁超时秒数
+     * @param flag         线程标识
+     * @param limit        等待上限
+     * @return true 获得成功 false 等待超时
+     * @throws DistributeRejectedException 超过等待上限 没有等待
+     */
+    public boolean tryLock(int expireSecond, int waitSecond, String flag, WaitLimit limit) {
+        return tryLockInner(expireSecond, waitSecond, flag, limit != null ? limit : WaitLimit.NONE);
     }
 
     /**
      * 获得锁
      *
-     * @param jedis        redis连接
-     * @param expireSecond 持有锁超时秒数
+     * @param expireSecond 持有锁超时秒数 小于等于0时使用默认值
      * @param waitSecond   等待锁超时秒数
      * @param flag         线程标识
+     * @param limit        等待上限
      * @return
      */
-    private boolean tryLockInner(Jedis jedis, int expireSecond, int waitSecond, String flag) {
-        // 尝试获得锁 如果自身持有锁则可以再次获得
-        if ((Long) jedis.eval(LOCK_SCRIPT, 3, redisLockKey, flag, "" + expireSecond) > 0) {
-            return true;
+    private boolean tryLockInner(int expireSecond, int waitSecond, String flag, WaitLimit limit) {
+        //锁必须有超时时间 redis中EXPIRE小于等于0会立即删除锁 本地后端则永不超时
+        int expire = expireSecond > 0 ? expireSecond : LOCK_EXPIRE_SECOND;
+        // 尝试获得锁 如果自身持有锁则可以再次获得 超过集群等待上限时在脚本中拒绝
+        if (!backend.tryLock(key, flag, expire, false, limit)) {
+            boolean locked = false;
+            try {
+                //超过本地等待上限时离开等待并拒绝
+                if (!limit.enterLocal(backend, key)) {
+                    throw new DistributeRejectedException(DistributeRejectedException.LOCAL_QUEUE_DEPTH, key.getName());
+                }
+                try {
+                    locked = waitStrategy.await(() -> backend.tryLock(key, flag, expire, true, WaitLimit.NONE), backend, key, waitSecond);
+                } finally {
+                    limit.leaveLocal(backend, key);
+                }
+            } catch (Throwable e) {
+                //拒绝或异常时离开等待 再抛出原异常
+                cancelWait(backend, key, flag, e);
+                throw e;
+            }
+            //如果超时则离开等待 返回锁定失败
+            if (!locked) {
+                cancelWait(backend, key, flag, null);
+                return false;
+            }
         }
-        //阻塞等待释放锁通知
-        List<String> lp = jedis.blpop(waitSecond, redisListKey);
-        if (lp == null || lp.size() < 1) {
-            //如果超时则返回锁定失败
-            return false;
+        long[] start = holdStart.get();
+        if (start[0] == 0) {
+            start[0] = System.nanoTime();
         }
-        return tryLockInner(jedis, expireSecond, waitSecond, flag);
+        return true;
     }
 
     /**
@@ -165,26 +232,40 @@ public class DistributeLock {
      * @return
      */
     public boolean tryUnlock(String flag) {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            //删除锁定的key
-            Long l = (Long) jedis.eval(UNLOCK_SCRIPT, 2, redisLockKey, flag);
-            if (l < 1) {
-                return false;
-            }
-            // 因为是可重入锁 所以释放成功不一定会释放锁
-            if (l.intValue() == 2) {
-                return true;
-            }
-            //如果锁释放消息队列里没有值 则释放一个信号
-            if (l.intValue() == 1 && jedis.llen(redisListKey).intValue() == 0) {
-                //通知等待的线程可以继续获得锁
-                jedis.rpush(redisListKey, "ok");
-            }
-            return true;
-        } finally {
-            jedis.close();
+        // 因为是可重入锁 所以释放成功不一定会释放锁 完全释放时由后端通知等待的线程
+        long[] start = holdStart.get();
+        long holdNanos = start[0] != 0 ? System.nanoTime() - start[0] : 0;
+        int l = backend.unlock(key, flag, (int) TimeUnit.NANOSECONDS.toMillis(holdNanos));
+        if (l == 1 && start[0] != 0) {
+            waitStrategy.onHold(holdNanos);
+            start[0] = 0;
         }
+        return l > 0;
+    }
+
+    /**
+     * 设置等待策略
+     *
+     * @param waitStrategy 等待策略
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : BlockingWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * 设置默认的等待上限
+     *
+     * @param waitLimit 等待上限 为null时不限制
+     */
+    public void setWaitLimit(WaitLimit waitLimit) {
+        this.waitLimit = waitLimit != null ? waitLimit : WaitLimit.NONE;
+    }
+
+    /**
+     * 获得redis中的key
+     */
+    public DistributeKey getKey() {
+        return key;
     }
 
     /**
@@ -200,22 +281,45 @@ public class DistributeLock {
      * @return 标识符
      */
     public String getThreadFlag() {
+        return getThreadFlag(backend);
+    }
+
+    /**
+     * 获取线程标识
+     *
+     * @param backend 协调后端 当前线程没有标识时用于生成
+     * @return 标识符
+     */
+    static String getThreadFlag(DistributeBackend backend) {
         String flag = threadFlag.get();
         if (flag != null && flag.length() > 0) {
             return flag;
         }
-        long num = 0;
-        Jedis jedis = jedisPool.getResource();
-        try {
-            num = jedis.incr(THREAD_FLAG_NUM);
-        } finally {
-            jedis.close();
-        }
-        flag = "" + num;
+        flag = "" + backend.nextThreadFlag();
         threadFlag.set(flag);
         return flag;
     }
 
+    /**
+     * 放弃等待 离开集群等待队列
+     * 失败时不抛出 等待租约到期后自动离开 等待中出现异常时失败记录为该异常的suppressed 不覆盖该异常
+     *
+     * @param backend 协调后端
+     * @param key     锁、信号量key
+     * @param flag    线程标识
+     * @param cause   等待中出现的异常 超时时为null
+     */
+    static void cancelWait(DistributeBackend backend, DistributeKey key, String flag, Throwable cause) {
+        try {
+            backend.cancelWait(key, flag);
+        } catch (RuntimeException e) {
+            //等待租约到期后移除
+            if (cause != null) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
     /**
      * 转换类型
      */
@@ -226,31 +330,3 @@ public class DistributeLock {
         return Integer.parseInt(str);
     }
 }
-
-/**
- * 自定义分布式锁异常
- */
-class DistributeLockException extends RuntimeException {
-    private Integer code;
-    /**
-     * 其他
-     */
-    public static Integer OTHER = 0;
-    /**
-     * 锁获取等待超时
-     */
-    public static Integer WAIT_LOCK_TIMEOUT = 1;
-
-    public DistributeLockException(Integer code, String message) {
-        super(message);
-        this.code = code;
-    }
-
-    public Integer getCode() {
-        return code;
-    }
-
-    public void setCode(Integer code) {
-        this.code = code;
-    }
-}
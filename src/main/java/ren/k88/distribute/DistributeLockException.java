@@ -0,0 +1,29 @@
+package ren.k88.distribute;
+
+/**
+ * 自定义分布式锁异常
+ */
+class DistributeLockException extends RuntimeException {
+    private Integer code;
+    /**
+     * 其他
+     */
+    public static Integer OTHER = 0;
+    /**
+     * 锁获取等待超时
+     */
+    public static Integer WAIT_LOCK_TIMEOUT = 1;
+
+    public DistributeLockException(Integer code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public void setCode(Integer code) {
+        this.code = code;
+    }
+}
@@ -0,0 +1,48 @@
+package ren.k88.distribute;
+
+/**
+ * 等待队列过长时拒绝获取锁、信号量 与等待超时不同，拒绝时没有等待，调用方可以立即降级
+ */
+public class DistributeRejectedException extends RuntimeException {
+    private Integer code;
+    /**
+     * 集群中等待线程数超过上限
+     */
+    public static Integer QUEUE_DEPTH = 1;
+    /**
+     * 当前jvm中等待线程数超过上限
+     */
+    public static Integer LOCAL_QUEUE_DEPTH = 2;
+    /**
+     * 预计等待时间超过上限
+     */
+    public static Integer WAIT_BUDGET = 3;
+    /**
+     * 锁、信号量key
+     */
+    private String key;
+
+    public DistributeRejectedException(Integer code, String key) {
+        super(message(code) + " " + key);
+        this.code = code;
+        this.key = key;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private static String message(Integer code) {
+        if (QUEUE_DEPTH.equals(code)) {
+            return "等待线程数超过上限";
+        }
+        if (LOCAL_QUEUE_DEPTH.equals(code)) {
+            return "本地等待线程数超过上限";
+        }
+        return "预计等待时间超过上限";
+    }
+}
@@ -1,25 +1,21 @@
 package ren.k88.distribute;
 
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 简单分布式信号量
  * 原理：使用redis中的 incr 和 decr实现信号量的增加和释放 超时可实现定时释放全部信号量功能
  * 问题：某一个获得信号量的线程意外关闭时，会造成一个信号量无法释放
  * 解决方案：1.提供释放所有信号量方法
+ * 信号量的增减通过 DistributeBackend 以原子操作完成，不再需要额外的分布式锁
  * Created by jasonzhu on 2017/3/16.
  */
 public class DistributeSemaphore {
-    /**
-     * 锁 redis key前缀
-     */
-    private static String REDIS_KEY = "semaphore:";
     /**
      * 等待锁默认超时时间
      */
@@ -32,21 +28,52 @@ public class DistributeSemaphore {
      * 信号量超时时间
      */
     private static int expireSecond = -1;
-    private JedisPool jedisPool;
-    /**
-     * redis中信号量key
-     */
-    private String redisSemaphoreKey;
+    private DistributeBackend backend;
     /**
-     * redis释放信号量通知列表
+     * redis中信号量key、释放信号量通知列表、竞争统计
      */
-    private String redisListKey;
+    private DistributeKey key;
 //    /**
 //     * redis等待线程数
 //     */
 //    private String redisWaitKey;
-
-    private DistributeLock lock;
+    /**
+     * 等待策略 默认阻塞等待
+     */
+    private WaitStrategy waitStrategy = BlockingWaitStrategy.INSTANCE;
+    /**
+     * 等待上限 默认不限制
+     */
+    private WaitLimit waitLimit = WaitLimit.NONE;
+    /**
+     * 当前线程获得信号量的时间 用于统计持有时间
+     */
+    private final ThreadLocal<long[]> holdStart = ThreadLocal.withInitial(() -> new long[1]);
+    /**
+     * 获得信号量 lua脚本 同时累加竞争统计 等待中的重试失败时续期等待租约 成功时离开等待队列
+     * 十二个参数：key、信号量个数、最大信号量个数、超时时间、统计key、是否为等待中的重试、最大等待线程数、最大预计等待毫秒数、等待队列、线程标识、当前毫秒、等待租约到期毫秒
+     */
+    public static String ACQUIRE_SCRIPT = DistributeLock.JOIN_WAIT + "local function stat(ok) if ok then redis.call('HINCRBY',KEYS[5],'acquired',1);" + DistributeKey.expireStat("KEYS[5]") + "if KEYS[6] == '1' then redis.call('ZREM',KEYS[9],KEYS[10]);end waited(KEYS[5],KEYS[9],KEYS[11]);return 1;end redis.call('HINCRBY',KEYS[5],'failed',1);" + DistributeKey.expireStat("KEYS[5]") + "if KEYS[6] == '0' then return join(KEYS[5],KEYS[9],KEYS[10],KEYS[11],KEYS[12],KEYS[7],KEYS[8],tonumber(KEYS[3]));end renew(KEYS[9],KEYS[10],KEYS[11],KEYS[12]);waited(KEYS[5],KEYS[9],KEYS[11]);return 0;end local n = tonumber(KEYS[2]);local p = tonumber(KEYS[3]);local c = redis.call('INCRBY',KEYS[1],n);if c - n < 0 then redis.call('DEL',KEYS[1]);c = redis.call('INCRBY',KEYS[1],n);end if c <= p then if tonumber(KEYS[4]) > 0 and c - n == 0 then redis.call('EXPIRE',KEYS[1],KEYS[4]);end return stat(true);elseif c - n > p then redis.call('SET',KEYS[1],p);else redis.call('DECRBY',KEYS[1],n);end return stat(false)";
+    /**
+     * 获得信号量 lua脚本 最大信号量个数从限制key中读取 不存在时使用初始值 同时累加竞争统计
+     * 十三个参数：key、限制key、信号量个数、初始最大信号量个数、超时时间、统计key、是否为等待中的重试、最大等待线程数、最大预计等待毫秒数、等待队列、线程标识、当前毫秒、等待租约到期毫秒
+     */
+    public static String ACQUIRE_LIMIT_SCRIPT = DistributeLock.JOIN_WAIT + "local function stat(ok) if ok then redis.call('HINCRBY',KEYS[6],'acquired',1);" + DistributeKey.expireStat("KEYS[6]") + "if KEYS[7] == '1' then redis.call('ZREM',KEYS[10],KEYS[11]);end waited(KEYS[6],KEYS[10],KEYS[12]);return 1;end redis.call('HINCRBY',KEYS[6],'failed',1);" + DistributeKey.expireStat("KEYS[6]") + "if KEYS[7] == '0' then return join(KEYS[6],KEYS[10],KEYS[11],KEYS[12],KEYS[13],KEYS[8],KEYS[9],tonumber(redis.call('GET',KEYS[2]) or KEYS[4]));end renew(KEYS[10],KEYS[11],KEYS[12],KEYS[13]);waited(KEYS[6],KEYS[10],KEYS[12]);return 0;end local n = tonumber(KEYS[3]);local p = tonumber(redis.call('GET',KEYS[2]));if not p then p = tonumber(KEYS[4]);redis.call('SET',KEYS[2],KEYS[4]);end local c = redis.call('INCRBY',KEYS[1],n);if c - n < 0 then redis.call('DEL',KEYS[1]);c = redis.call('INCRBY',KEYS[1],n);end if c <= p then if tonumber(KEYS[5]) > 0 and c - n == 0 then redis.call('EXPIRE',KEYS[1],KEYS[5]);end return stat(true);end redis.call('DECRBY',KEYS[1],n);return stat(false)";
+    /**
+     * 比较并更新最大信号量个数 lua脚本 返回操作后的值
+     * 四个参数：限制key、期望值、新值、初始最大信号量个数
+     */
+    public static String SET_LIMIT_SCRIPT = "local c = tonumber(redis.call('GET',KEYS[1]));if not c then c = tonumber(KEYS[4]);end if c ~= tonumber(KEYS[2]) then return c;end redis.call('SET',KEYS[1],KEYS[3]);return tonumber(KEYS[3])";
+    /**
+     * 释放信号量 lua脚本 同时累加持有时间
+     * 四个参数：key、信号量个数、统计key、持有毫秒数
+     */
+    public static String RELEASE_SCRIPT = "if KEYS[4] ~= '0' then redis.call('HINCRBY',KEYS[3],'hold',KEYS[4]);" + DistributeKey.expireStat("KEYS[3]") + "end local c = redis.call('DECRBY',KEYS[1],KEYS[2]);if c < 0 then redis.call('DEL',KEYS[1]);return 0;end return c";
+    /**
+     * 释放所有信号量 lua脚本
+     * 一个参数：key 返回释放的信号量个数
+     */
+    public static String RELEASE_ALL_SCRIPT = "local c = redis.call('GET',KEYS[1]);if type(c) ~= 'string' then return 0;end redis.call('DEL',KEYS[1]);if tonumber(c) < 0 then return 0;end return tonumber(c)";
 
     /**
      * 实例化简单分布式锁
@@ -64,35 +91,37 @@ public class DistributeSemaphore {
      * @param redisSemaphoreKey 在redis中锁的key
      */
     public DistributeSemaphore(JedisPool jedisPool, String redisSemaphoreKey, int permits, int expireSecond) {
-        this.jedisPool = jedisPool;
-        this.redisSemaphoreKey = REDIS_KEY + "value:" + redisSemaphoreKey;
-        this.redisListKey = REDIS_KEY + "list:" + redisSemaphoreKey;
-//        this.redisWaitKey = REDIS_KEY + "wait:" + redisSemaphoreKey;
+        this(new JedisDistributeBackend(jedisPool), redisSemaphoreKey, permits, expireSecond);
+    }
+
+    /**
+     * 实例化简单分布式信号量
+     *
+     * @param backend           协调后端
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param permits           信号量个数
+     * @param expireSecond      信号量超时时间
+     */
+    public DistributeSemaphore(DistributeBackend backend, String redisSemaphoreKey, int permits, int expireSecond) {
+        this.backend = backend;
+        this.key = DistributeKey.semaphore(redisSemaphoreKey);
         this.permits = permits > 0 ? permits : 1;
         this.expireSecond = expireSecond;
-        lock = new DistributeLock(jedisPool, REDIS_KEY + redisSemaphoreKey);
     }
 
     /**
      * 获得可用信号量 非原子操作 结果供参考
+     * 只读取一次已使用个数 不加锁；大量信号量批量读取或缓存使用 SemaphoreView
      */
     public int getSemaphore() {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            lock.lock();
-            try {
-                String countStr = jedis.get(redisSemaphoreKey);
-                if (countStr == null || countStr.length() < 1) {
-                    return permits;
-                }
-                return permits - Integer.parseInt(countStr);
-            } finally {
-                //释放锁
-                lock.unlock();
-            }
-        } finally {
-            jedis.close();
-        }
+        return permits - backend.getUsed(key);
+    }
+
+    /**
+     * 获得信号量个数
+     */
+    public int getPermits() {
+        return permits;
     }
 
 //    /**
@@ -151,60 +180,60 @@ public class DistributeSemaphore {
      * @return true 获得成功 false 超时
      */
     public boolean tryAcquire(int n, int waitSecond) {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            return tryAcquireInner(jedis, n, waitSecond);
-        } finally {
-            jedis.close();
-        }
+        return tryAcquireInner(n, waitSecond, waitLimit);
+    }
+
+    /**
+     * 获得信号量 需要等待时如果超过等待上限则立即拒绝
+     *
+     * @param n          信号量个数
+     * @param waitSecond 等待超时时间
+     * @param limit      等待上限
+     * @return true 获得成功 false 超时
+     * @throws DistributeRejectedException 超过等待上限 没有等待
+     */
+    public boolean tryAcquire(int n, int waitSecond, WaitLimit limit) {
+        return tryAcquireInner(n, waitSecond, limit != null ? limit : WaitLimit.NONE);
     }
 
     /**
      * 获得信号量
      *
-     * @param jedis      redis连接
      * @param n          信号量个数
      * @param waitSecond 等待超时时间
+     * @param limit      等待上限
      */
-    public boolean tryAcquireInner(Jedis jedis, int n, int waitSecond) {
-        //锁
-        lock.lock();
-        try {
-            long cu = jedis.incrBy(redisSemaphoreKey, n);
-            if (cu - n < 0) {
-                //删除信号量
-                jedis.del(redisSemaphoreKey);
-                cu = jedis.incrBy(redisSemaphoreKey, n);
-            }
-            //获得信号量成功
-            if (cu <= permits) {
-                //设置超时时间
-                if (expireSecond > 0 && cu - n == 0) {
-                    jedis.expire(redisSemaphoreKey, expireSecond);
+    public boolean tryAcquireInner(int n, int waitSecond, WaitLimit limit) {
+        //获得信号量失败时按等待策略等待释放信号量通知 超过集群等待上限时在脚本中拒绝
+        String flag = DistributeLock.getThreadFlag(backend);
+        if (!backend.tryAcquire(key, flag, n, permits, expireSecond, false, limit)) {
+            boolean acquired = false;
+            try {
+                //超过本地等待上限时离开等待并拒绝
+                if (!limit.enterLocal(backend, key)) {
+                    throw new DistributeRejectedException(DistributeRejectedException.LOCAL_QUEUE_DEPTH, key.getName());
+                }
+                try {
+                    acquired = waitStrategy.await(() -> backend.tryAcquire(key, flag, n, permits, expireSecond, true, WaitLimit.NONE), backend, key, waitSecond);
+                } finally {
+                    limit.leaveLocal(backend, key);
                 }
-                return true;
-            } else if (cu - n > permits) {
-                //如果当前信号量 大于最大信号量 更新为最大信号量
-                jedis.set(redisSemaphoreKey, "" + permits);
-            } else {
-                //已经超过限制 减少最近获得的信号量
-                jedis.decrBy(redisSemaphoreKey, n);
+            } catch (Throwable e) {
+                //拒绝或异常时离开等待 再抛出原异常
+                DistributeLock.cancelWait(backend, key, flag, e);
+                throw e;
+            }
+            //如果超时则离开等待 返回锁定失败
+            if (!acquired) {
+                DistributeLock.cancelWait(backend, key, flag, null);
+                return false;
             }
-        } finally {
-            //释放锁
-            lock.unlock();
         }
-//        //增加等待线程数
-//        jedis.incr(redisWaitKey);
-        //阻塞等待释放信号量通知
-        List<String> lp = jedis.blpop(waitSecond, redisListKey);
-//        //减少等待线程数
-//        jedis.decr(redisWaitKey);
-        if (lp == null ||lp.size() < 1) {
-            //如果超时则返回锁定失败
-            return false;
+        long[] start = holdStart.get();
+        if (start[0] == 0) {
+            start[0] = System.nanoTime();
         }
-        return tryAcquireInner(jedis, n, waitSecond);
+        return true;
     }
 
     /**
@@ -220,24 +249,14 @@ public class DistributeSemaphore {
      * @param n 信号量个数
      */
     public void release(int n) {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            lock.lock();
-            try {
-                long cur = jedis.decr(redisSemaphoreKey);
-                if (cur < 0) {
-                    jedis.del(redisSemaphoreKey);
-                }
-            } finally {
-                //释放锁
-                lock.unlock();
-            }
-            for (int i = 0; i < n; i++) {
-                //通知等待的线程可以继续获得锁 非公平锁
-                jedis.rpush(redisListKey, "ok");
-            }
-        } finally {
-            jedis.close();
+        //只统计同一线程获得并释放的持有时间
+        long[] start = holdStart.get();
+        long holdNanos = start[0] != 0 ? System.nanoTime() - start[0] : 0;
+        //通知等待的线程可以继续获得锁 非公平锁
+        backend.release(key, n, (int) TimeUnit.NANOSECONDS.toMillis(holdNanos));
+        if (start[0] != 0) {
+            waitStrategy.onHold(holdNanos);
+            start[0] = 0;
         }
     }
 
@@ -245,23 +264,35 @@ public class DistributeSemaphore {
      * 释放所有信号量
      */
     public void releaseAll() {
-        Jedis jedis = jedisPool.getResource();
-        try {
-            String countStr = jedis.get(redisSemaphoreKey);
-            if (countStr == null || countStr.length() < 1) {
-                return;
-            }
-            jedis.del(redisSemaphoreKey);
-            for (int i = 0; i < Integer.parseInt(countStr); i++) {
-                //通知等待的线程可以继续获得锁 非公平锁
-                jedis.rpush(redisListKey, "ok");
-            }
-        } finally {
-            jedis.close();
-        }
+        backend.releaseAll(key);
     }
 
 
+    /**
+     * 设置等待策略
+     *
+     * @param waitStrategy 等待策略
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : BlockingWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * 设置默认的等待上限
+     *
+     * @param waitLimit 等待上限 为null时不限制
+     */
+    public void setWaitLimit(WaitLimit waitLimit) {
+        this.waitLimit = waitLimit != null ? waitLimit : WaitLimit.NONE;
+    }
+
+    /**
+     * 获得redis中的key
+     */
+    public DistributeKey getKey() {
+        return key;
+    }
+
     /**
      * 生成唯一key
      */
@@ -279,31 +310,3 @@ public class DistributeSemaphore {
         return Integer.parseInt(str);
     }
 }
-
-/**
- * 自定义分布式信号量异常
- */
-class DistributeSemaphoreException extends RuntimeException {
-    private Integer code;
-    /**
-     * 其他
-     */
-    public static Integer OTHER = 0;
-    /**
-     * 信号量获取等待超时
-     */
-    public static Integer WAIT_SEMAPHORE_TIMEOUT = 1;
-
-    public DistributeSemaphoreException(Integer code, String message) {
-        super(message);
-        this.code = code;
-    }
-
-    public Integer getCode() {
-        return code;
-    }
-
-    public void setCode(Integer code) {
-        this.code = code;
-    }
-}
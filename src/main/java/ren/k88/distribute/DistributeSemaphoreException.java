@@ -0,0 +1,29 @@
+package ren.k88.distribute;
+
+/**
+ * 自定义分布式信号量异常
+ */
+class DistributeSemaphoreException extends RuntimeException {
+    private Integer code;
+    /**
+     * 其他
+     */
+    public static Integer OTHER = 0;
+    /**
+     * 信号量获取等待超时
+     */
+    public static Integer WAIT_SEMAPHORE_TIMEOUT = 1;
+
+    public DistributeSemaphoreException(Integer code, String message) {
+        super(message);
+        this.code = code;
+    }
+
+    public Integer getCode() {
+        return code;
+    }
+
+    public void setCode(Integer code) {
+        this.code = code;
+    }
+}
@@ -0,0 +1,90 @@
+package ren.k88.distribute;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 梯度限制算法
+ * 原理：记录观测到的最小耗时，耗时接近最小耗时时按排队余量增加，耗时增长时按 最小耗时/当前耗时 的比例减少，失败时减半，结果做平滑处理，每次至少变化1
+ * 最小耗时每隔一定次数重新统计，以适应下游能力的变化
+ */
+public class GradientLimit implements LimitAlgorithm {
+    /**
+     * 最小信号量个数
+     */
+    private int minLimit;
+    /**
+     * 最大信号量个数
+     */
+    private int maxLimit;
+    /**
+     * 允许耗时超过最小耗时的倍数
+     */
+    private double tolerance;
+    /**
+     * 平滑系数 0到1之间 越大变化越快
+     */
+    private double smoothing;
+    /**
+     * 重新统计最小耗时的次数间隔
+     */
+    private long resetSamples;
+    private final AtomicLong minRtt = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong samples = new AtomicLong();
+
+    /**
+     * 实例化梯度限制算法 耗时容忍倍数1.5 平滑系数0.2 每1000次重新统计最小耗时
+     *
+     * @param minLimit 最小信号量个数
+     * @param maxLimit 最大信号量个数
+     */
+    public GradientLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, 1.5, 0.2, 1000);
+    }
+
+    /**
+     * 实例化梯度限制算法
+     *
+     * @param minLimit     最小信号量个数
+     * @param maxLimit     最大信号量个数
+     * @param tolerance    允许耗时超过最小耗时的倍数
+     * @param smoothing    平滑系数 0到1之间
+     * @param resetSamples 重新统计最小耗时的次数间隔
+     */
+    public GradientLimit(int minLimit, int maxLimit, double tolerance, double smoothing, long resetSamples) {
+        this.minLimit = minLimit > 0 ? minLimit : 1;
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.tolerance = tolerance >= 1 ? tolerance : 1;
+        this.smoothing = smoothing > 0 && smoothing <= 1 ? smoothing : 0.2;
+        this.resetSamples = resetSamples > 0 ? resetSamples : 1000;
+    }
+
+    @Override
+    public int update(int limit, long rttNanos, int inflight, boolean dropped) {
+        if (rttNanos <= 0) {
+            return limit;
+        }
+        if (samples.incrementAndGet() % resetSamples == 0) {
+            minRtt.set(rttNanos);
+        }
+        long min = minRtt.accumulateAndGet(rttNanos, Math::min);
+        //失败时减半 不加排队余量 否则较小的信号量个数不会减少
+        double target = limit * 0.5;
+        if (!dropped) {
+            double gradient = Math.max(0.5, Math.min(1.0, tolerance * min / rttNanos));
+            target = limit * gradient + Math.sqrt(limit);
+        }
+        //信号量使用不足一半时 说明压力来自调用方 不增加
+        if (inflight * 2 < limit) {
+            target = Math.min(limit, target);
+        }
+        double smoothed = limit * (1 - smoothing) + target * smoothing;
+        //每次至少变化1 否则较小的信号量个数平滑后取整不会变化
+        int next = limit;
+        if (target > limit) {
+            next = Math.max(limit + 1, (int) Math.ceil(smoothed));
+        } else if (target < limit) {
+            next = Math.min(limit - 1, (int) Math.floor(smoothed));
+        }
+        return Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
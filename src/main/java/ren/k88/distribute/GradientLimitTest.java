@@ -0,0 +1,45 @@
+package ren.k88.distribute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 梯度限制算法测试 较小的信号量个数在耗时不变时增加、失败时减少、使用不足时不变
+ */
+public class GradientLimitTest {
+    //最小耗时
+    public static long rtt = TimeUnit.MILLISECONDS.toNanos(10);
+    //连续调用次数
+    public static int rounds = 5;
+
+    public static void main(String[] args) {
+        boolean ok = true;
+        for (int limit = 1; limit <= 6; limit++) {
+            //耗时保持最小耗时 信号量用满 每次至少加一
+            ok &= check("增加", limit, false, true, limit + rounds);
+            //每次失败 至少减一 直到最小值
+            ok &= check("失败", limit, true, true, 1);
+            //信号量使用不足一半 不增加
+            ok &= check("使用不足", limit, false, false, limit);
+        }
+        System.out.println(ok ? "全部通过" : "存在失败");
+    }
+
+    /**
+     * 从limit开始连续调用rounds次
+     *
+     * @param full   信号量是否用满
+     * @param expect 期望的最终信号量个数
+     */
+    private static boolean check(String name, int limit, boolean dropped, boolean full, int expect) {
+        GradientLimit algorithm = new GradientLimit(1, 100);
+        StringBuilder path = new StringBuilder().append(limit);
+        int l = limit;
+        for (int i = 0; i < rounds; i++) {
+            l = algorithm.update(l, rtt, full ? l : 0, dropped);
+            path.append("->").append(l);
+        }
+        boolean ok = l == expect;
+        System.out.println("【" + name + "】初始【" + limit + "】变化【" + path + "】期望【" + expect + "】" + (ok ? "" : " 失败"));
+        return ok;
+    }
+}
@@ -0,0 +1,765 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.SafeEncoder;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 使用redis实现的协调后端
+ * 原理：锁和信号量的状态变更使用lua脚本保证原子性，等待使用BLPOP阻塞在通知列表上
+ * 性能：使用二进制接口和EVALSHA，key的编码在DistributeKey中只生成一次，线程标识的编码缓存复用，常用数字参数预先编码，脚本参数数组每个线程复用，
+ * 无竞争的获得、释放在本类中不产生新对象
+ */
+public class JedisDistributeBackend implements DistributeBackend {
+    /**
+     * 线程标识
+     */
+    private static String THREAD_FLAG_NUM = "thread:flag:num";
+    /**
+     * 每次SCAN的建议个数
+     */
+    private static int SCAN_COUNT = 1000;
+    /**
+     * 批量读取时每次MGET的key个数
+     */
+    private static int MGET_COUNT = 1000;
+    /**
+     * 通知消息
+     */
+    private static byte[] OK = SafeEncoder.encode("ok");
+    /**
+     * 预先编码的数字参数
+     */
+    private static byte[][] NUMBERS = new byte[1024][];
+    /**
+     * 预先生成的通知消息数组
+     */
+    private static byte[][][] OKS = new byte[64][][];
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = SafeEncoder.encode(String.valueOf(i));
+        }
+        for (int i = 0; i < OKS.length; i++) {
+            OKS[i] = new byte[i][];
+            for (int j = 0; j < i; j++) {
+                OKS[i][j] = OK;
+            }
+        }
+    }
+
+    private JedisPool jedisPool;
+    /**
+     * 线程标识的编码缓存
+     */
+    private BoundedCache<byte[]> encoded = new BoundedCache<>(100000, TimeUnit.MINUTES.toNanos(10));
+    /**
+     * 当前毫秒和等待租约到期毫秒的编码 同一毫秒内所有线程复用
+     */
+    private volatile WaitClock waitClock = new WaitClock(0);
+    /**
+     * 每个线程复用的脚本参数数组 下标为参数个数
+     */
+    private ThreadLocal<byte[][][]> args = ThreadLocal.withInitial(() -> {
+        byte[][][] a = new byte[14][][];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = new byte[i][];
+        }
+        return a;
+    });
+    private Script cancelWaitScript = new Script(DistributeLock.CANCEL_WAIT_SCRIPT);
+    private Script lockScript = new Script(DistributeLock.LOCK_SCRIPT);
+    private Script unlockScript = new Script(DistributeLock.UNLOCK_SCRIPT);
+    private Script acquireScript = new Script(DistributeSemaphore.ACQUIRE_SCRIPT);
+    private Script acquireLimitScript = new Script(DistributeSemaphore.ACQUIRE_LIMIT_SCRIPT);
+    private Script setLimitScript = new Script(DistributeSemaphore.SET_LIMIT_SCRIPT);
+    private Script releaseScript = new Script(DistributeSemaphore.RELEASE_SCRIPT);
+    private Script releaseAllScript = new Script(DistributeSemaphore.RELEASE_ALL_SCRIPT);
+    private Script acquirePriorityScript = new Script(PriorityDistributeSemaphore.ACQUIRE_PRIORITY_SCRIPT);
+    private Script releasePriorityScript = new Script(PriorityDistributeSemaphore.RELEASE_PRIORITY_SCRIPT);
+    private Script cancelPriorityScript = new Script(PriorityDistributeSemaphore.CANCEL_PRIORITY_SCRIPT);
+    private Script submitScript = new Script(DistributeDispatcher.SUBMIT_SCRIPT);
+    private Script claimScript = new Script(DistributeDispatcher.CLAIM_SCRIPT);
+    private Script completeScript = new Script(DistributeDispatcher.COMPLETE_SCRIPT);
+    private Script renewScript = new Script(DistributeDispatcher.RENEW_SCRIPT);
+    private Script campaignScript = new Script(DistributeLeaderElection.CAMPAIGN_SCRIPT);
+    private Script resignScript = new Script(DistributeLeaderElection.RESIGN_SCRIPT);
+
+    /**
+     * 实例化redis协调后端
+     *
+     * @param jedisPool redis连接池
+     */
+    public JedisDistributeBackend(JedisPool jedisPool) {
+        this.jedisPool = jedisPool;
+    }
+
+    public JedisPool getJedisPool() {
+        return jedisPool;
+    }
+
+    @Override
+    public long nextThreadFlag() {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return jedis.incr(THREAD_FLAG_NUM);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean tryLock(DistributeKey key, String flag, int expireSecond, boolean waiting, WaitLimit limit) {
+        WaitClock c = waitClock();
+        byte[][] a = args(10);
+        a[0] = key.valueBytes;
+        a[1] = encode(flag);
+        a[2] = number(expireSecond);
+        a[3] = key.statBytes;
+        a[4] = number(waiting ? 1 : 0);
+        a[5] = number(limit.getMaxWaiting());
+        a[6] = number(limit.getMaxWaitMillis());
+        a[7] = key.waitBytes;
+        a[8] = c.now;
+        a[9] = c.deadline;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return admitted(eval(jedis, lockScript, a), key);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int unlock(DistributeKey key, String flag, int holdMillis) {
+        byte[][] a = args(4);
+        a[0] = key.valueBytes;
+        a[1] = encode(flag);
+        a[2] = key.statBytes;
+        a[3] = number(holdMillis);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            //删除锁定的key
+            int l = (int) eval(jedis, unlockScript, a);
+            //如果锁释放消息队列里没有值 则释放一个信号
+            if (l == 1 && jedis.llen(key.listBytes) == 0) {
+                //通知等待的线程可以继续获得锁
+                jedis.rpush(key.listBytes, OKS[1]);
+            }
+            return l;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean await(DistributeKey key, int waitSecond) {
+        byte[][] a = args(1);
+        a[0] = key.listBytes;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            List<byte[]> lp = jedis.blpop(waitSecond > 0 ? waitSecond : 0, a);
+            return lp != null && lp.size() > 0;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int awaitAny(DistributeKey[] keys, int waitSecond) {
+        byte[][] a = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            a[i] = keys[i].listBytes;
+        }
+        Jedis jedis = jedisPool.getResource();
+        List<byte[]> lp;
+        try {
+            lp = jedis.blpop(waitSecond > 0 ? waitSecond : 0, a);
+        } finally {
+            jedis.close();
+        }
+        if (lp == null || lp.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (Arrays.equals(a[i], lp.get(0))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void notifyWaiters(DistributeKey key, int n) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            notify(jedis, key, n);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public void expireNotify(DistributeKey key, int expireSecond) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            if (expireSecond > 0) {
+                jedis.expire(key.listBytes, expireSecond);
+            } else {
+                jedis.del(key.listBytes);
+            }
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public void cancelWait(DistributeKey key, String flag) {
+        byte[][] a = args(4);
+        a[0] = key.statBytes;
+        a[1] = key.waitBytes;
+        a[2] = encode(flag);
+        a[3] = waitClock().now;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            eval(jedis, cancelWaitScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean tryAcquire(DistributeKey key, String flag, int n, int permits, int expireSecond, boolean waiting, WaitLimit limit) {
+        WaitClock c = waitClock();
+        byte[][] a = args(12);
+        a[0] = key.valueBytes;
+        a[1] = number(n);
+        a[2] = number(permits);
+        a[3] = number(expireSecond);
+        a[4] = key.statBytes;
+        a[5] = number(waiting ? 1 : 0);
+        a[6] = number(limit.getMaxWaiting());
+        a[7] = number(limit.getMaxWaitMillis());
+        a[8] = key.waitBytes;
+        a[9] = encode(flag);
+        a[10] = c.now;
+        a[11] = c.deadline;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return admitted(eval(jedis, acquireScript, a), key);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean tryAcquireLimited(DistributeKey key, String flag, int n, int initLimit, int expireSecond, boolean waiting, WaitLimit limit) {
+        WaitClock c = waitClock();
+        byte[][] a = args(13);
+        a[0] = key.valueBytes;
+        a[1] = key.limitBytes;
+        a[2] = number(n);
+        a[3] = number(initLimit);
+        a[4] = number(expireSecond);
+        a[5] = key.statBytes;
+        a[6] = number(waiting ? 1 : 0);
+        a[7] = number(limit.getMaxWaiting());
+        a[8] = number(limit.getMaxWaitMillis());
+        a[9] = key.waitBytes;
+        a[10] = encode(flag);
+        a[11] = c.now;
+        a[12] = c.deadline;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return admitted(eval(jedis, acquireLimitScript, a), key);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int getLimit(DistributeKey key, int initLimit) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            byte[] limit = jedis.get(key.limitBytes);
+            return limit == null ? initLimit : parseInt(limit);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int compareAndSetLimit(DistributeKey key, int initLimit, int expect, int update) {
+        byte[][] a = args(4);
+        a[0] = key.limitBytes;
+        a[1] = number(expect);
+        a[2] = number(update);
+        a[3] = number(initLimit);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return (int) eval(jedis, setLimitScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int release(DistributeKey key, int n, int holdMillis) {
+        byte[][] a = args(4);
+        a[0] = key.valueBytes;
+        a[1] = number(n);
+        a[2] = key.statBytes;
+        a[3] = number(holdMillis);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            int used = (int) eval(jedis, releaseScript, a);
+            notify(jedis, key, n);
+            return used;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int releaseAll(DistributeKey key) {
+        byte[][] a = args(1);
+        a[0] = key.valueBytes;
+        Jedis jedis = jedisPool.getResource();
+        try {
+            int n = (int) eval(jedis, releaseAllScript, a);
+            notify(jedis, key, n);
+            return n;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int getUsed(DistributeKey key) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            byte[] count = jedis.get(key.valueBytes);
+            return count == null ? 0 : parseInt(count);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int[] getUsed(DistributeKey[] keys) {
+        int[] used = new int[keys.length];
+        Jedis jedis = jedisPool.getResource();
+        try {
+            //分批MGET 避免单次请求过大
+            for (int from = 0; from < keys.length; from += MGET_COUNT) {
+                int to = Math.min(keys.length, from + MGET_COUNT);
+                byte[][] a = new byte[to - from][];
+                for (int i = from; i < to; i++) {
+                    a[i - from] = keys[i].valueBytes;
+                }
+                List<byte[]> values = jedis.mget(a);
+                for (int i = from; i < to; i++) {
+                    byte[] v = values.get(i - from);
+                    used[i] = v == null ? 0 : parseInt(v);
+                }
+            }
+            return used;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean tryAcquirePriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int permits, int expireSecond, int starvationInterval, int leaseMillis) {
+        long now = System.currentTimeMillis();
+        byte[][] a = priorityArgs(key, priorityKeys, flag, priority, 1, permits, expireSecond, starvationInterval, now, now + leaseMillis, 0);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return eval(jedis, acquirePriorityScript, a) > 0;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int releasePriority(DistributeKey key, DistributeKey[] priorityKeys, int n, int starvationInterval, int holdMillis) {
+        long now = System.currentTimeMillis();
+        byte[][] a = priorityArgs(key, priorityKeys, "", 0, n, 0, 0, starvationInterval, now, now, holdMillis);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return (int) eval(jedis, releasePriorityScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public void cancelWaitPriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int starvationInterval) {
+        long now = System.currentTimeMillis();
+        byte[][] a = priorityArgs(key, priorityKeys, flag, priority, 0, 0, 0, starvationInterval, now, now, 0);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            eval(jedis, cancelPriorityScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int submitTasks(DistributeKey dispatchKey, String[] ids, String[] payloads) {
+        byte[][] a = new byte[3 + 2 * ids.length][];
+        a[0] = dispatchKey.queueBytes;
+        a[1] = dispatchKey.taskBytes;
+        a[2] = dispatchKey.listBytes;
+        for (int i = 0; i < ids.length; i++) {
+            a[3 + 2 * i] = SafeEncoder.encode(ids[i]);
+            a[4 + 2 * i] = SafeEncoder.encode(payloads[i]);
+        }
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return (int) eval(jedis, submitScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> claimTasks(DistributeKey key, DistributeKey dispatchKey, int permits, int max, long leaseMillis) {
+        long now = System.currentTimeMillis();
+        byte[][] a = new byte[9][];
+        a[0] = key.valueBytes;
+        a[1] = dispatchKey.queueBytes;
+        a[2] = dispatchKey.taskBytes;
+        a[3] = dispatchKey.runningBytes;
+        a[4] = key.statBytes;
+        a[5] = number(permits);
+        a[6] = number(max);
+        a[7] = SafeEncoder.encode(String.valueOf(now));
+        a[8] = SafeEncoder.encode(String.valueOf(now + leaseMillis));
+        Jedis jedis = jedisPool.getResource();
+        try {
+            List<byte[]> r = (List<byte[]>) evalObject(jedis, claimScript, a);
+            List<String> tasks = new ArrayList<>(r.size());
+            for (byte[] b : r) {
+                tasks.add(SafeEncoder.encode(b));
+            }
+            return tasks;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int completeTasks(DistributeKey key, DistributeKey dispatchKey, String[] ids, int holdMillis) {
+        byte[][] a = new byte[6 + ids.length][];
+        a[0] = key.valueBytes;
+        a[1] = dispatchKey.taskBytes;
+        a[2] = dispatchKey.runningBytes;
+        a[3] = key.statBytes;
+        a[4] = number(holdMillis);
+        a[5] = dispatchKey.listBytes;
+        for (int i = 0; i < ids.length; i++) {
+            a[6 + i] = SafeEncoder.encode(ids[i]);
+        }
+        Jedis jedis = jedisPool.getResource();
+        try {
+            int n = (int) eval(jedis, completeScript, a);
+            //同时通知使用同名DistributeSemaphore等待的线程
+            notify(jedis, key, n);
+            return n;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int renewTasks(DistributeKey dispatchKey, String[] ids, long leaseMillis) {
+        byte[][] a = new byte[2 + ids.length][];
+        a[0] = dispatchKey.runningBytes;
+        a[1] = SafeEncoder.encode(String.valueOf(System.currentTimeMillis() + leaseMillis));
+        for (int i = 0; i < ids.length; i++) {
+            a[2 + i] = SafeEncoder.encode(ids[i]);
+        }
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return (int) eval(jedis, renewScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public int getQueued(DistributeKey dispatchKey) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return jedis.llen(dispatchKey.queueBytes).intValue();
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public long campaign(DistributeKey key, String flag, long leaseMillis) {
+        byte[][] a = args(4);
+        a[0] = key.valueBytes;
+        a[1] = key.epochBytes;
+        a[2] = encode(flag);
+        a[3] = SafeEncoder.encode(String.valueOf(leaseMillis));
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return eval(jedis, campaignScript, a);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public boolean resign(DistributeKey key, String flag) {
+        byte[][] a = args(3);
+        a[0] = key.valueBytes;
+        a[1] = key.listBytes;
+        a[2] = encode(flag);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            return eval(jedis, resignScript, a) > 0;
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public String getLeader(DistributeKey key) {
+        Jedis jedis = jedisPool.getResource();
+        try {
+            byte[] flag = jedis.get(key.valueBytes);
+            return flag == null ? null : SafeEncoder.encode(flag);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public void scanStats(String statKeyPrefix, Consumer<ContentionStat> consumer) {
+        ScanParams params = new ScanParams().match(statKeyPrefix + "*").count(SCAN_COUNT);
+        Jedis jedis = jedisPool.getResource();
+        try {
+            String cursor = ScanParams.SCAN_POINTER_START;
+            do {
+                ScanResult<String> result = jedis.scan(cursor, params);
+                List<String> keys = result.getResult();
+                //每批key使用管道读取统计
+                Pipeline p = jedis.pipelined();
+                List<Response<List<String>>> responses = new ArrayList<>(keys.size());
+                for (String statKey : keys) {
+                    responses.add(p.hmget(statKey, "acquired", "failed", "waiting", "hold", "shed"));
+                }
+                p.sync();
+                for (int i = 0; i < keys.size(); i++) {
+                    List<String> v = responses.get(i).get();
+                    consumer.accept(new ContentionStat(keys.get(i), getLong(v.get(0)), getLong(v.get(1)), getLong(v.get(2)), getLong(v.get(3)), getLong(v.get(4))));
+                }
+                cursor = result.getStringCursor();
+            } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+        } finally {
+            jedis.close();
+        }
+    }
+
+    /**
+     * 通知等待的线程可以继续获得信号量 非公平
+     */
+    private void notify(Jedis jedis, DistributeKey key, int n) {
+        if (n < 1) {
+            return;
+        }
+        byte[][] oks = n < OKS.length ? OKS[n] : new byte[n][];
+        if (n >= OKS.length) {
+            for (int i = 0; i < n; i++) {
+                oks[i] = OK;
+            }
+        }
+        jedis.rpush(key.listBytes, oks);
+    }
+
+    /**
+     * 执行脚本 优先使用EVALSHA 服务端没有缓存脚本时使用EVAL 同时会缓存脚本
+     * 所有参数都作为KEYS传入
+     *
+     * @return 脚本返回的整数
+     */
+    private long eval(Jedis jedis, Script script, byte[][] params) {
+        return (Long) evalObject(jedis, script, params);
+    }
+
+    /**
+     * 执行脚本 返回脚本的原始结果
+     */
+    private Object evalObject(Jedis jedis, Script script, byte[][] params) {
+        try {
+            return jedis.evalsha(script.sha1, params.length, params);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return jedis.eval(script.body, params.length, params);
+        }
+    }
+
+    /**
+     * 获取脚本的结果 小于0时为拒绝原因
+     */
+    private static boolean admitted(long result, DistributeKey key) {
+        if (result < 0) {
+            throw new DistributeRejectedException((int) -result, key.getName());
+        }
+        return result > 0;
+    }
+
+    /**
+     * 分优先级信号量脚本参数 参数顺序见 PriorityDistributeSemaphore
+     */
+    private byte[][] priorityArgs(DistributeKey key, DistributeKey[] priorityKeys, String flag, int priority, int n, int permits,
+                                  int expireSecond, int starvationInterval, long now, long leaseDeadline, int holdMillis) {
+        int k = priorityKeys.length;
+        byte[][] a = new byte[13 + 2 * k][];
+        a[0] = key.valueBytes;
+        a[1] = key.reserveBytes;
+        a[2] = key.statBytes;
+        a[3] = encode(flag);
+        a[4] = number(priority);
+        a[5] = number(n);
+        a[6] = number(permits);
+        a[7] = number(starvationInterval);
+        a[8] = SafeEncoder.encode(String.valueOf(now));
+        a[9] = SafeEncoder.encode(String.valueOf(leaseDeadline));
+        a[10] = number(k);
+        a[11] = number(holdMillis);
+        a[12] = number(expireSecond);
+        for (int i = 0; i < k; i++) {
+            a[13 + i] = priorityKeys[i].waitBytes;
+            a[13 + k + i] = priorityKeys[i].listBytes;
+        }
+        return a;
+    }
+
+    /**
+     * 获得当前线程复用的参数数组
+     */
+    private byte[][] args(int n) {
+        return args.get()[n];
+    }
+
+    /**
+     * 获得字符串编码 使用缓存
+     */
+    private byte[] encode(String str) {
+        byte[] bytes = encoded.get(str);
+        if (bytes == null) {
+            bytes = encoded.putIfAbsent(str, SafeEncoder.encode(str));
+        }
+        return bytes;
+    }
+
+    /**
+     * 获得数字编码 常用数字使用预先编码的值
+     */
+    private static byte[] number(int i) {
+        if (i >= 0 && i < NUMBERS.length) {
+            return NUMBERS[i];
+        }
+        return SafeEncoder.encode(String.valueOf(i));
+    }
+
+    /**
+     * 转换类型
+     */
+    private static long getLong(String str) {
+        if (str == null || str.length() < 1) {
+            return 0;
+        }
+        return Long.parseLong(str);
+    }
+
+    /**
+     * 转换类型 不生成字符串
+     */
+    private static int parseInt(byte[] bytes) {
+        if (bytes.length < 1) {
+            return 0;
+        }
+        int i = bytes[0] == '-' ? 1 : 0;
+        int r = 0;
+        for (; i < bytes.length; i++) {
+            r = r * 10 + (bytes[i] - '0');
+        }
+        return bytes[0] == '-' ? -r : r;
+    }
+
+    /**
+     * 获得当前毫秒的编码 毫秒变化时重新编码
+     */
+    private WaitClock waitClock() {
+        long now = System.currentTimeMillis();
+        WaitClock c = waitClock;
+        if (c.millis != now) {
+            c = new WaitClock(now);
+            waitClock = c;
+        }
+        return c;
+    }
+
+    /**
+     * 当前毫秒和等待租约到期毫秒的编码
+     */
+    private static class WaitClock {
+        private final long millis;
+        private final byte[] now;
+        private final byte[] deadline;
+
+        WaitClock(long millis) {
+            this.millis = millis;
+            this.now = SafeEncoder.encode(String.valueOf(millis));
+            this.deadline = SafeEncoder.encode(String.valueOf(millis + DistributeLock.WAIT_LEASE_MILLIS));
+        }
+    }
+
+    /**
+     * lua脚本及其sha1
+     */
+    private static class Script {
+        private final byte[] body;
+        private final byte[] sha1;
+
+        Script(String script) {
+            this.body = SafeEncoder.encode(script);
+            this.sha1 = SafeEncoder.encode(sha1Hex(body));
+        }
+
+        private static String sha1Hex(byte[] body) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(body);
+                StringBuilder sb = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                return sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
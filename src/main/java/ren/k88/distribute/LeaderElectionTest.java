@@ -0,0 +1,92 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 领导者选举测试 统计领导者让出和意外关闭时的接管时间、任期变化，以及稳定时每个候选者的请求频率
+ */
+public class LeaderElectionTest {
+    //候选者个数
+    public static int n = 5;
+    //租约毫秒数
+    public static int leaseMillis = 3000;
+    //统计请求频率的秒数
+    public static int steadySecond = 10;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        String name = "election:" + System.nanoTime();
+        //成为领导者时放入 候选者下标和任期
+        BlockingQueue<long[]> gained = new LinkedBlockingQueue<>();
+        List<DistributeLeaderElection> candidates = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            DistributeLeaderElection election = new DistributeLeaderElection(backend, name);
+            election.setLeaseMillis(leaseMillis);
+            int index = i;
+            election.start(epoch -> gained.add(new long[]{index, epoch}), epoch -> System.out.println("    候选者【" + index + "】失去任期【" + epoch + "】"));
+            candidates.add(election);
+        }
+        long[] leader = gained.poll(10, TimeUnit.SECONDS);
+        System.out.println("候选者【" + leader[0] + "】成为领导者 任期【" + leader[1] + "】 同时为领导者的个数【" + leaders(candidates) + "】");
+
+        long[] before = counts(candidates);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(steadySecond));
+        long[] after = counts(candidates);
+        for (int i = 0; i < n; i++) {
+            System.out.println("    候选者【" + i + "】" + (i == leader[0] ? "（领导者）" : "") + " 每秒请求【"
+                    + String.format("%.2f", (after[i] - before[i]) / (double) steadySecond) + "】");
+        }
+
+        leader = handover(candidates, gained, leader, "让出", true);
+        leader = handover(candidates, gained, leader, "意外关闭", false);
+        for (DistributeLeaderElection election : candidates) {
+            election.shutdown();
+        }
+    }
+
+    private static long[] handover(List<DistributeLeaderElection> candidates, BlockingQueue<long[]> gained, long[] leader, String name, boolean resign) throws Exception {
+        long begin = System.currentTimeMillis();
+        candidates.get((int) leader[0]).shutdown(resign);
+        long[] next = gained.poll(leaseMillis * 3, TimeUnit.MILLISECONDS);
+        if (next == null) {
+            System.out.println("【" + name + "】后没有候选者接管");
+            return leader;
+        }
+        System.out.println("【" + name + "】候选者【" + next[0] + "】接管 耗时【" + (System.currentTimeMillis() - begin) + "】毫秒 任期【"
+                + leader[1] + "】->【" + next[1] + "】 同时为领导者的个数【" + leaders(candidates) + "】");
+        return next;
+    }
+
+    private static int leaders(List<DistributeLeaderElection> candidates) {
+        int c = 0;
+        for (DistributeLeaderElection election : candidates) {
+            if (election.isLeader()) {
+                c++;
+            }
+        }
+        return c;
+    }
+
+    private static long[] counts(List<DistributeLeaderElection> candidates) {
+        long[] c = new long[candidates.size()];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = candidates.get(i).getRequestCount();
+        }
+        return c;
+    }
+}
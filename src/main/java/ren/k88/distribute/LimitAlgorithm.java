@@ -0,0 +1,19 @@
+package ren.k88.distribute;
+
+/**
+ * 自适应信号量的限制算法
+ * 根据每次调用的耗时和是否失败 计算新的最大信号量个数
+ */
+public interface LimitAlgorithm {
+
+    /**
+     * 计算新的最大信号量个数
+     *
+     * @param limit    当前最大信号量个数
+     * @param rttNanos 本次调用耗时纳秒数
+     * @param inflight 本次释放前已使用的信号量个数
+     * @param dropped  本次调用是否失败或超时
+     * @return 新的最大信号量个数
+     */
+    int update(int limit, long rttNanos, int inflight, boolean dropped);
+}
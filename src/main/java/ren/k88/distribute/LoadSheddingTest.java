@@ -0,0 +1,76 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 等待上限测试 锁被长时间持有时大量线程获取锁 比较不限制和设置等待上限时的超时数、拒绝数和线程被占用的总时间
+ */
+public class LoadSheddingTest {
+    //获取锁的线程数
+    public static int n = 200;
+    //等待锁超时秒数
+    public static int waitSecond = 2;
+    //集群最大等待线程数
+    public static int maxWaiting = 10;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(500);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        JedisPool jedisPool = null;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            jedisPool = new JedisPool(config, "127.0.0.1", 6379);
+            backend = new JedisDistributeBackend(jedisPool);
+            System.out.println("redis连接成功");
+        }
+        run(backend, jedisPool, "不限制", WaitLimit.NONE);
+        run(backend, jedisPool, "最多" + maxWaiting + "个等待", new WaitLimit(maxWaiting, 0, 0));
+    }
+
+    private static void run(DistributeBackend backend, JedisPool jedisPool, String name, WaitLimit limit) throws Exception {
+        String lockKey = "shed:" + System.nanoTime();
+        //模拟故障 锁被长时间持有
+        DistributeLock holder = new DistributeLock(backend, lockKey);
+        String holderFlag = holder.getThreadFlag();
+        holder.lock(60, 1, holderFlag);
+        CountDownLatch countDownLatch = new CountDownLatch(n);
+        AtomicInteger timeout = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicLong busyMillis = new AtomicLong();
+        AtomicInteger maxActive = new AtomicInteger();
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                DistributeLock lock = new DistributeLock(backend, lockKey);
+                long start = System.currentTimeMillis();
+                try {
+                    if (!lock.tryLock(10, waitSecond, lock.getThreadFlag(), limit)) {
+                        timeout.incrementAndGet();
+                    }
+                } catch (DistributeRejectedException e) {
+                    rejected.incrementAndGet();
+                }
+                busyMillis.addAndGet(System.currentTimeMillis() - start);
+                countDownLatch.countDown();
+            });
+            t.start();
+        }
+        while (!countDownLatch.await(100, TimeUnit.MILLISECONDS)) {
+            if (jedisPool != null) {
+                maxActive.accumulateAndGet(jedisPool.getNumActive(), Math::max);
+            }
+        }
+        holder.unlock(holderFlag);
+        System.out.println("【" + name + "】【" + n + "】个线程获取被持有的锁 超时【" + timeout.get() + "】 拒绝【" + rejected.get() + "】 线程占用总时间【"
+                + busyMillis.get() + "】毫秒 最多占用连接【" + maxActive.get() + "】");
+    }
+}
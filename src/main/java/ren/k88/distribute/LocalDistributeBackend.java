@@ -0,0 +1,866 @@
+package ren.k88.distribute;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 使用jvm内存实现的协调后端
+ * 原理：锁和信号量状态保存在ConcurrentHashMap中，使用compute保证原子性，通知列表使用Semaphore实现，等待线程挂起不占用cpu
+ * 语义与JedisDistributeBackend一致：可重入、持有超时、释放通知，只在当前jvm内有效，适用于单节点部署和无redis的测试
+ */
+public class LocalDistributeBackend implements DistributeBackend {
+    private final AtomicLong threadFlagNum = new AtomicLong();
+    /**
+     * 锁状态
+     */
+    private final ConcurrentMap<String, LockEntry> locks = new ConcurrentHashMap<>();
+    /**
+     * 信号量状态
+     */
+    private final ConcurrentMap<String, CountEntry> counts = new ConcurrentHashMap<>();
+    /**
+     * 最大信号量个数
+     */
+    private final ConcurrentMap<String, Integer> limits = new ConcurrentHashMap<>();
+    /**
+     * 通知列表 每个许可相当于redis列表中的一个"ok"
+     */
+    private final ConcurrentMap<String, Semaphore> lists = new ConcurrentHashMap<>();
+    /**
+     * 等待多个通知列表时使用的监视器 有通知时版本号加一
+     */
+    private final Object anySignal = new Object();
+    private long anyVersion;
+    /**
+     * 等待多个通知列表的线程数 为0时放入通知不需要唤醒
+     */
+    private final AtomicInteger anyWaiters = new AtomicInteger();
+    /**
+     * 竞争统计
+     */
+    private final ConcurrentMap<String, Stat> stats = new ConcurrentHashMap<>();
+    /**
+     * 分优先级信号量状态
+     */
+    private final ConcurrentMap<String, PriorityState> priorities = new ConcurrentHashMap<>();
+    /**
+     * 任务分发状态
+     */
+    private final ConcurrentMap<String, DispatchState> dispatches = new ConcurrentHashMap<>();
+    /**
+     * 领导者选举状态
+     */
+    private final ConcurrentMap<String, LeaderState> leaders = new ConcurrentHashMap<>();
+
+    @Override
+    public long nextThreadFlag() {
+        return threadFlagNum.incrementAndGet();
+    }
+
+    @Override
+    public boolean tryLock(DistributeKey key, String flag, int expireSecond, boolean waiting, WaitLimit limit) {
+        boolean[] locked = new boolean[1];
+        locks.compute(key.getValueKey(), (k, e) -> {
+            long now = System.nanoTime();
+            if (e != null && !e.isExpired(now) && !e.flag.equals(flag)) {
+                return e;
+            }
+            int count = e == null || e.isExpired(now) ? 1 : e.count + 1;
+            locked[0] = true;
+            return new LockEntry(flag, count, deadline(now, expireSecond));
+        });
+        admit(stat(key).onAttempt(locked[0], waiting, limit, 1, flag), key);
+        return locked[0];
+    }
+
+    @Override
+    public int unlock(DistributeKey key, String flag, int holdMillis) {
+        int[] result = new int[1];
+        locks.computeIfPresent(key.getValueKey(), (k, e) -> {
+            if (e.isExpired(System.nanoTime())) {
+                return null;
+            }
+            if (!e.flag.equals(flag)) {
+                return e;
+            }
+            if (e.count < 2) {
+                result[0] = 1;
+                return null;
+            }
+            result[0] = 2;
+            return new LockEntry(e.flag, e.count - 1, e.deadline);
+        });
+        //如果锁释放消息队列里没有值 则释放一个信号
+        if (result[0] == 1) {
+            stat(key).hold.addAndGet(holdMillis);
+            signal(key);
+        }
+        return result[0];
+    }
+
+    @Override
+    public boolean await(DistributeKey key, int waitSecond) {
+        Semaphore list = list(key);
+        try {
+            if (waitSecond <= 0) {
+                list.acquire();
+                return true;
+            }
+            return list.tryAcquire(waitSecond, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public int awaitAny(DistributeKey[] keys, int waitSecond) {
+        long deadline = waitSecond > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(waitSecond) : 0;
+        anyWaiters.incrementAndGet();
+        try {
+            while (true) {
+                long version;
+                synchronized (anySignal) {
+                    version = anyVersion;
+                }
+                for (int i = 0; i < keys.length; i++) {
+                    if (list(keys[i]).tryAcquire()) {
+                        return i;
+                    }
+                }
+                synchronized (anySignal) {
+                    while (anyVersion == version) {
+                        long remaining = deadline == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                        if (deadline != 0 && remaining <= 0) {
+                            return -1;
+                        }
+                        anySignal.wait(remaining);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } finally {
+            anyWaiters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void notifyWaiters(DistributeKey key, int n) {
+        if (n > 0) {
+            list(key).release(n);
+            signalAny();
+        }
+    }
+
+    @Override
+    public void expireNotify(DistributeKey key, int expireSecond) {
+        //本地通知列表随进程退出 只处理删除
+        if (expireSecond <= 0) {
+            lists.remove(key.getListKey());
+        }
+    }
+
+    @Override
+    public void cancelWait(DistributeKey key, String flag) {
+        stat(key).leave(flag);
+    }
+
+    @Override
+    public boolean tryAcquire(DistributeKey key, String flag, int n, int permits, int expireSecond, boolean waiting, WaitLimit limit) {
+        boolean[] acquired = new boolean[1];
+        counts.compute(key.getValueKey(), (k, e) -> {
+            long now = System.nanoTime();
+            int used = e == null || e.isExpired(now) || e.count < 0 ? 0 : e.count;
+            if (used + n <= permits) {
+                acquired[0] = true;
+                //设置超时时间
+                long deadline = used == 0 ? deadline(now, expireSecond) : e.deadline;
+                return new CountEntry(used + n, deadline);
+            }
+            if (used > permits) {
+                //如果当前信号量 大于最大信号量 更新为最大信号量
+                return new CountEntry(permits, e.deadline);
+            }
+            return used == 0 ? null : e;
+        });
+        admit(stat(key).onAttempt(acquired[0], waiting, limit, permits, flag), key);
+        return acquired[0];
+    }
+
+    @Override
+    public boolean tryAcquireLimited(DistributeKey key, String flag, int n, int initLimit, int expireSecond, boolean waiting, WaitLimit limit) {
+        boolean[] acquired = new boolean[1];
+        counts.compute(key.getValueKey(), (k, e) -> {
+            long now = System.nanoTime();
+            int permits = limits.computeIfAbsent(key.getLimitKey(), l -> initLimit);
+            int used = e == null || e.isExpired(now) || e.count < 0 ? 0 : e.count;
+            if (used + n <= permits) {
+                acquired[0] = true;
+                //设置超时时间
+                long deadline = used == 0 ? deadline(now, expireSecond) : e.deadline;
+                return new CountEntry(used + n, deadline);
+            }
+            //限制降低后不修正已使用的信号量 等待释放
+            return used == 0 ? null : e;
+        });
+        admit(stat(key).onAttempt(acquired[0], waiting, limit, getLimit(key, initLimit), flag), key);
+        return acquired[0];
+    }
+
+    @Override
+    public int getLimit(DistributeKey key, int initLimit) {
+        Integer limit = limits.get(key.getLimitKey());
+        return limit == null ? initLimit : limit;
+    }
+
+    @Override
+    public int compareAndSetLimit(DistributeKey key, int initLimit, int expect, int update) {
+        return limits.compute(key.getLimitKey(), (k, c) -> {
+            int current = c == null ? initLimit : c;
+            return current == expect ? update : current;
+        });
+    }
+
+    @Override
+    public int release(DistributeKey key, int n, int holdMillis) {
+        CountEntry entry = counts.computeIfPresent(key.getValueKey(), (k, e) -> {
+            if (e.isExpired(System.nanoTime()) || e.count - n < 0) {
+                return null;
+            }
+            return new CountEntry(e.count - n, e.deadline);
+        });
+        if (holdMillis > 0) {
+            stat(key).hold.addAndGet(holdMillis);
+        }
+        notifyWaiters(key, n);
+        return entry == null ? 0 : entry.count;
+    }
+
+    @Override
+    public int releaseAll(DistributeKey key) {
+        CountEntry e = counts.remove(key.getValueKey());
+        if (e == null || e.isExpired(System.nanoTime()) || e.count < 1) {
+            return 0;
+        }
+        notifyWaiters(key, e.count);
+        return e.count;
+    }
+
+    @Override
+    public int getUsed(DistributeKey key) {
+        CountEntry e = counts.get(key.getValueKey());
+        if (e == null || e.isExpired(System.nanoTime())) {
+            return 0;
+        }
+        return e.count;
+    }
+
+    @Override
+    public int[] getUsed(DistributeKey[] keys) {
+        int[] used = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            used[i] = getUsed(keys[i]);
+        }
+        return used;
+    }
+
+    @Override
+    public boolean tryAcquirePriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int permits, int expireSecond, int starvationInterval, int leaseMillis) {
+        PriorityState state = priority(key, priorityKeys);
+        long now = System.currentTimeMillis();
+        Stat stat = stat(key);
+        synchronized (state) {
+            state.expire(System.nanoTime());
+            state.clean(now, starvationInterval);
+            Map<String, Long> queue = state.waiters.get(priority);
+            boolean waiting = queue.containsKey(flag);
+            boolean ok;
+            if (waiting && state.reserved[priority] > 0) {
+                state.reserved[priority]--;
+                ok = true;
+            } else {
+                ok = state.used < permits;
+                for (int i = 0; i < priority && ok; i++) {
+                    ok = state.waiters.get(i).size() <= state.reserved[i];
+                }
+                if (ok && !waiting) {
+                    ok = queue.size() <= state.reserved[priority];
+                }
+                if (ok && state.used++ == 0) {
+                    //设置超时时间
+                    state.deadline = deadline(System.nanoTime(), expireSecond);
+                }
+            }
+            if (ok) {
+                queue.remove(flag);
+                stat.acquired.incrementAndGet();
+            } else {
+                //重新放入队尾并续期
+                queue.remove(flag);
+                queue.put(flag, now + leaseMillis);
+                stat.failed.incrementAndGet();
+            }
+            stat.waiting.set(state.waiting());
+            return ok;
+        }
+    }
+
+    @Override
+    public int releasePriority(DistributeKey key, DistributeKey[] priorityKeys, int n, int starvationInterval, int holdMillis) {
+        PriorityState state = priority(key, priorityKeys);
+        Stat stat = stat(key);
+        if (holdMillis > 0) {
+            stat.hold.addAndGet(holdMillis);
+        }
+        synchronized (state) {
+            state.expire(System.nanoTime());
+            state.clean(System.currentTimeMillis(), starvationInterval);
+            for (int i = 0; i < n; i++) {
+                state.free(starvationInterval);
+            }
+            stat.waiting.set(state.waiting());
+            return state.used;
+        }
+    }
+
+    @Override
+    public void cancelWaitPriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int starvationInterval) {
+        PriorityState state = priority(key, priorityKeys);
+        synchronized (state) {
+            state.waiters.get(priority).remove(flag);
+            state.clean(System.currentTimeMillis(), starvationInterval);
+            stat(key).waiting.set(state.waiting());
+        }
+    }
+
+    @Override
+    public int submitTasks(DistributeKey dispatchKey, String[] ids, String[] payloads) {
+        DispatchState state = dispatch(dispatchKey);
+        int queued;
+        synchronized (state) {
+            for (int i = 0; i < ids.length; i++) {
+                state.tasks.put(ids[i], payloads[i]);
+                state.queue.addLast(ids[i]);
+            }
+            queued = state.queue.size();
+        }
+        signal(dispatchKey);
+        return queued;
+    }
+
+    @Override
+    public List<String> claimTasks(DistributeKey key, DistributeKey dispatchKey, int permits, int max, long leaseMillis) {
+        DispatchState state = dispatch(dispatchKey);
+        long now = System.currentTimeMillis();
+        List<String> claimed = new ArrayList<>();
+        int n = 0;
+        synchronized (state) {
+            //回收租约到期的任务
+            Iterator<Map.Entry<String, Long>> it = state.running.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> e = it.next();
+                if (e.getValue() <= now) {
+                    it.remove();
+                    decrement(key, 1);
+                    if (state.tasks.containsKey(e.getKey())) {
+                        state.queue.addFirst(e.getKey());
+                    }
+                }
+            }
+            while (n < max && !state.queue.isEmpty()) {
+                String id = state.queue.peekFirst();
+                String payload = state.tasks.get(id);
+                if (payload == null) {
+                    state.queue.pollFirst();
+                    continue;
+                }
+                boolean[] acquired = new boolean[1];
+                counts.compute(key.getValueKey(), (k, e) -> {
+                    int used = e == null || e.isExpired(System.nanoTime()) || e.count < 0 ? 0 : e.count;
+                    if (used >= permits) {
+                        return e;
+                    }
+                    acquired[0] = true;
+                    return new CountEntry(used + 1, e == null || e.isExpired(System.nanoTime()) ? 0 : e.deadline);
+                });
+                if (!acquired[0]) {
+                    break;
+                }
+                state.queue.pollFirst();
+                state.running.put(id, now + leaseMillis);
+                claimed.add(id);
+                claimed.add(payload);
+                n++;
+            }
+        }
+        if (n > 0) {
+            stat(key).acquired.addAndGet(n);
+        }
+        return claimed;
+    }
+
+    @Override
+    public int completeTasks(DistributeKey key, DistributeKey dispatchKey, String[] ids, int holdMillis) {
+        DispatchState state = dispatch(dispatchKey);
+        int n = 0;
+        synchronized (state) {
+            for (String id : ids) {
+                if (state.running.remove(id) != null) {
+                    n++;
+                }
+                state.tasks.remove(id);
+            }
+            if (n > 0) {
+                decrement(key, n);
+            }
+        }
+        if (holdMillis > 0) {
+            stat(key).hold.addAndGet(holdMillis);
+        }
+        if (n > 0) {
+            signal(dispatchKey);
+            //同时通知使用同名DistributeSemaphore等待的线程
+            notifyWaiters(key, n);
+        }
+        return n;
+    }
+
+    @Override
+    public int renewTasks(DistributeKey dispatchKey, String[] ids, long leaseMillis) {
+        DispatchState state = dispatch(dispatchKey);
+        long deadline = System.currentTimeMillis() + leaseMillis;
+        int n = 0;
+        synchronized (state) {
+            for (String id : ids) {
+                if (state.running.replace(id, deadline) != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int getQueued(DistributeKey dispatchKey) {
+        DispatchState state = dispatch(dispatchKey);
+        synchronized (state) {
+            return state.queue.size();
+        }
+    }
+
+    @Override
+    public long campaign(DistributeKey key, String flag, long leaseMillis) {
+        LeaderState state = leaders.computeIfAbsent(key.getValueKey(), k -> new LeaderState());
+        long now = System.nanoTime();
+        synchronized (state) {
+            if (state.flag != null && !state.isExpired(now) && !state.flag.equals(flag)) {
+                return -Math.max(1, TimeUnit.NANOSECONDS.toMillis(state.deadline - now));
+            }
+            if (state.flag == null || state.isExpired(now)) {
+                state.flag = flag;
+                state.epoch++;
+            }
+            state.deadline = now + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+            return state.epoch;
+        }
+    }
+
+    @Override
+    public boolean resign(DistributeKey key, String flag) {
+        LeaderState state = leaders.get(key.getValueKey());
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            if (state.flag == null || state.isExpired(System.nanoTime()) || !state.flag.equals(flag)) {
+                return false;
+            }
+            state.flag = null;
+        }
+        signal(key);
+        return true;
+    }
+
+    @Override
+    public String getLeader(DistributeKey key) {
+        LeaderState state = leaders.get(key.getValueKey());
+        if (state == null) {
+            return null;
+        }
+        synchronized (state) {
+            return state.isExpired(System.nanoTime()) ? null : state.flag;
+        }
+    }
+
+    @Override
+    public void scanStats(String statKeyPrefix, Consumer<ContentionStat> consumer) {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Stat> e : stats.entrySet()) {
+            if (e.getKey().startsWith(statKeyPrefix)) {
+                Stat s = e.getValue();
+                //与redis中的统计key相同 超过保留时间没有更新时删除
+                if (s.isExpired(now)) {
+                    stats.remove(e.getKey(), s);
+                    continue;
+                }
+                consumer.accept(new ContentionStat(e.getKey(), s.acquired.get(), s.failed.get(), s.waiting.get(), s.hold.get(), s.shed.get()));
+            }
+        }
+    }
+
+    private Semaphore list(DistributeKey key) {
+        Semaphore list = lists.get(key.getListKey());
+        return list != null ? list : lists.computeIfAbsent(key.getListKey(), k -> new Semaphore(0));
+    }
+
+    /**
+     * 超过等待上限时拒绝
+     */
+    private static void admit(int rejected, DistributeKey key) {
+        if (rejected != 0) {
+            throw new DistributeRejectedException(rejected, key.getName());
+        }
+    }
+
+    private DispatchState dispatch(DistributeKey dispatchKey) {
+        return dispatches.computeIfAbsent(dispatchKey.getQueueKey(), k -> new DispatchState());
+    }
+
+    /**
+     * 已使用的信号量减少n个
+     */
+    private void decrement(DistributeKey key, int n) {
+        counts.computeIfPresent(key.getValueKey(), (k, e) -> e.count - n > 0 ? new CountEntry(e.count - n, e.deadline) : null);
+    }
+
+    /**
+     * 通知列表中没有值时放入一个 等待线程醒来后自行重试
+     */
+    private void signal(DistributeKey key) {
+        Semaphore list = list(key);
+        if (list.availablePermits() == 0) {
+            list.release();
+            signalAny();
+        }
+    }
+
+    /**
+     * 唤醒等待多个通知列表的线程
+     */
+    private void signalAny() {
+        if (anyWaiters.get() > 0) {
+            synchronized (anySignal) {
+                anyVersion++;
+                anySignal.notifyAll();
+            }
+        }
+    }
+
+    private PriorityState priority(DistributeKey key, DistributeKey[] priorityKeys) {
+        PriorityState state = priorities.get(key.getReserveKey());
+        if (state != null) {
+            return state;
+        }
+        Semaphore[] classLists = new Semaphore[priorityKeys.length];
+        for (int i = 0; i < classLists.length; i++) {
+            classLists[i] = list(priorityKeys[i]);
+        }
+        return priorities.computeIfAbsent(key.getReserveKey(), k -> new PriorityState(classLists));
+    }
+
+    /**
+     * 获得统计并续期 超过保留时间没有更新的统计重新开始
+     */
+    private Stat stat(DistributeKey key) {
+        long now = System.nanoTime();
+        Stat stat = stats.get(key.getStatKey());
+        if (stat == null || stat.isExpired(now)) {
+            stat = stats.compute(key.getStatKey(), (k, s) -> s == null || s.isExpired(now) ? new Stat() : s);
+        }
+        stat.touched = now;
+        return stat;
+    }
+
+    /**
+     * 计算超时时间点 小于等于0时不超时 与信号量脚本相同 锁的超时时间已由 DistributeLock 保证大于0
+     */
+    private static long deadline(long now, int expireSecond) {
+        return expireSecond > 0 ? now + TimeUnit.SECONDS.toNanos(expireSecond) : 0;
+    }
+
+    /**
+     * 锁状态
+     */
+    private static class LockEntry {
+        private final String flag;
+        private final int count;
+        private final long deadline;
+
+        LockEntry(String flag, int count, long deadline) {
+            this.flag = flag;
+            this.count = count;
+            this.deadline = deadline;
+        }
+
+        boolean isExpired(long now) {
+            return deadline != 0 && now - deadline >= 0;
+        }
+    }
+
+    /**
+     * 信号量状态
+     */
+    private static class CountEntry {
+        private final int count;
+        private final long deadline;
+
+        CountEntry(int count, long deadline) {
+            this.count = count;
+            this.deadline = deadline;
+        }
+
+        boolean isExpired(long now) {
+            return deadline != 0 && now - deadline >= 0;
+        }
+    }
+
+    /**
+     * 任务分发状态 使用时需同步
+     */
+    private static class DispatchState {
+        /**
+         * 待分发的任务id
+         */
+        private final ArrayDeque<String> queue = new ArrayDeque<>();
+        /**
+         * 任务id到任务内容
+         */
+        private final Map<String, String> tasks = new HashMap<>();
+        /**
+         * 执行中的任务id到租约到期时间
+         */
+        private final Map<String, Long> running = new HashMap<>();
+    }
+
+    /**
+     * 领导者选举状态 任期在领导者变化后保留 使用时需同步
+     */
+    private static class LeaderState {
+        /**
+         * 领导者标识 没有领导者时为null
+         */
+        private String flag;
+        private long epoch;
+        private long deadline;
+
+        boolean isExpired(long now) {
+            return now - deadline >= 0;
+        }
+    }
+
+    /**
+     * 分优先级信号量状态 与 PriorityDistributeSemaphore 中的脚本逻辑一致 使用时需同步
+     */
+    private static class PriorityState {
+        /**
+         * 已使用个数 包括已转交未领取的预留
+         */
+        private int used;
+        /**
+         * 超时时间 为0时不超时
+         */
+        private long deadline;
+        /**
+         * 转交次数 用于防饥饿
+         */
+        private long grants;
+        /**
+         * 各优先级预留个数
+         */
+        private final int[] reserved;
+        /**
+         * 各优先级等待队列 线程标识到等待租约到期时间
+         */
+        private final List<Map<String, Long>> waiters;
+        /**
+         * 各优先级通知列表
+         */
+        private final Semaphore[] lists;
+
+        PriorityState(Semaphore[] lists) {
+            this.lists = lists;
+            this.reserved = new int[lists.length];
+            this.waiters = new ArrayList<>(lists.length);
+            for (int i = 0; i < lists.length; i++) {
+                waiters.add(new LinkedHashMap<>());
+            }
+        }
+
+        /**
+         * 超时后全部释放 与redis中key过期一致
+         */
+        void expire(long now) {
+            if (deadline != 0 && now - deadline >= 0) {
+                used = 0;
+                deadline = 0;
+            }
+        }
+
+        /**
+         * 选择转交的优先级 没有未分配的等待线程时返回-1
+         */
+        int pick(int starvationInterval) {
+            int low = lists.length - 1;
+            if (starvationInterval > 0 && grants % starvationInterval == starvationInterval - 1 && waiters.get(low).size() > reserved[low]) {
+                return low;
+            }
+            for (int i = 0; i < lists.length; i++) {
+                if (waiters.get(i).size() > reserved[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 释放一个信号量 有等待线程时转交
+         */
+        void free(int starvationInterval) {
+            int i = pick(starvationInterval);
+            if (i < 0) {
+                used = Math.max(0, used - 1);
+                return;
+            }
+            reserved[i]++;
+            grants++;
+            lists[i].release();
+        }
+
+        /**
+         * 移除租约到期的等待线程 多余的预留转交给其他等待线程
+         */
+        void clean(long now, int starvationInterval) {
+            for (Map<String, Long> queue : waiters) {
+                queue.values().removeIf(deadline -> deadline <= now);
+            }
+            for (int i = 0; i < lists.length; i++) {
+                while (reserved[i] > waiters.get(i).size()) {
+                    reserved[i]--;
+                    free(starvationInterval);
+                }
+            }
+        }
+
+        int waiting() {
+            int t = 0;
+            for (Map<String, Long> queue : waiters) {
+                t += queue.size();
+            }
+            return t;
+        }
+    }
+
+    /**
+     * 竞争统计
+     */
+    private static class Stat {
+        private final AtomicLong acquired = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong waiting = new AtomicLong();
+        private final AtomicLong hold = new AtomicLong();
+        private final AtomicLong shed = new AtomicLong();
+        /**
+         * 最近一次更新的时间
+         */
+        private volatile long touched = System.nanoTime();
+
+        /**
+         * 超过竞争统计保留时间没有更新
+         */
+        boolean isExpired(long now) {
+            return now - touched > TimeUnit.SECONDS.toNanos(DistributeKey.STAT_EXPIRE_SECOND);
+        }
+
+        /**
+         * 等待线程标识到等待租约到期时间 与redis中的等待队列相同
+         */
+        private final ConcurrentMap<String, Long> waiters = new ConcurrentHashMap<>();
+        /**
+         * 下一次移除到期等待线程的时间
+         */
+        private volatile long pruneAt = System.nanoTime();
+
+        /**
+         * 记录一次获取尝试 首次失败时加入等待 等待中失败时续期等待租约 等待后成功时离开
+         *
+         * @return 0 获得成功或已加入等待 其他为拒绝原因
+         */
+        int onAttempt(boolean ok, boolean retry, WaitLimit limit, int permits, String flag) {
+            long now = System.nanoTime();
+            if (ok) {
+                acquired.incrementAndGet();
+                if (retry) {
+                    waiters.remove(flag);
+                }
+                waited(now);
+                return 0;
+            }
+            failed.incrementAndGet();
+            waiters.put(flag, now + TimeUnit.MILLISECONDS.toNanos(DistributeLock.WAIT_LEASE_MILLIS));
+            long w = waited(now);
+            return retry ? 0 : join(limit, permits, flag, w);
+        }
+
+        /**
+         * 加入等待后判断等待上限 与 DistributeLock.JOIN_WAIT 逻辑一致
+         */
+        int join(WaitLimit limit, int permits, String flag, long w) {
+            int rejected = 0;
+            if (limit.getMaxWaiting() > 0 && w > limit.getMaxWaiting()) {
+                rejected = DistributeRejectedException.QUEUE_DEPTH;
+            } else if (limit.getMaxWaitMillis() > 0) {
+                long a = acquired.get();
+                if (a > 0 && (double) w * hold.get() / a / Math.max(1, permits) > limit.getMaxWaitMillis()) {
+                    rejected = DistributeRejectedException.WAIT_BUDGET;
+                }
+            }
+            if (rejected != 0) {
+                leave(flag);
+                shed.incrementAndGet();
+            }
+            return rejected;
+        }
+
+        void leave(String flag) {
+            waiters.remove(flag);
+            waited(System.nanoTime());
+        }
+
+        /**
+         * 移除租约到期的等待线程并更新等待线程数 每秒最多遍历一次
+         */
+        long waited(long now) {
+            if (now - pruneAt >= 0) {
+                pruneAt = now + TimeUnit.SECONDS.toNanos(1);
+                waiters.values().removeIf(d -> d - now <= 0);
+            }
+            long w = waiters.size();
+            waiting.set(w);
+            return w;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁、信号量注册表
+ * 原理：同一个key复用同一个锁、信号量对象，避免每次操作都新建对象和拼接key，也使每个key的状态（等待策略、持有时间统计）可以保留；
+ * 对象保存在有界缓存中，空闲超时或超过最大个数时淘汰，淘汰不影响redis中的状态，再次获取时重新创建
+ * 同一个信号量key使用首次创建时的信号量个数和超时时间
+ */
+public class LockRegistry {
+    /**
+     * 默认最大缓存个数
+     */
+    private static int MAX_SIZE = 10000;
+    /**
+     * 默认空闲淘汰秒数
+     */
+    private static int IDLE_SECOND = 600;
+    private DistributeBackend backend;
+    private BoundedCache<DistributeLock> locks;
+    private BoundedCache<DistributeSemaphore> semaphores;
+    /**
+     * 新建对象使用的等待策略
+     */
+    private volatile WaitStrategy waitStrategy = BlockingWaitStrategy.INSTANCE;
+    /**
+     * 新建对象使用的等待上限
+     */
+    private volatile WaitLimit waitLimit = WaitLimit.NONE;
+
+    /**
+     * 实例化注册表
+     *
+     * @param jedisPool redis连接池
+     */
+    public LockRegistry(JedisPool jedisPool) {
+        this(new JedisDistributeBackend(jedisPool));
+    }
+
+    /**
+     * 实例化注册表
+     *
+     * @param backend 协调后端
+     */
+    public LockRegistry(DistributeBackend backend) {
+        this(backend, MAX_SIZE, IDLE_SECOND);
+    }
+
+    /**
+     * 实例化注册表
+     *
+     * @param backend    协调后端
+     * @param maxSize    锁、信号量各自的最大缓存个数
+     * @param idleSecond 空闲淘汰秒数
+     */
+    public LockRegistry(DistributeBackend backend, int maxSize, int idleSecond) {
+        this.backend = backend;
+        this.locks = new BoundedCache<>(maxSize, TimeUnit.SECONDS.toNanos(idleSecond));
+        this.semaphores = new BoundedCache<>(maxSize, TimeUnit.SECONDS.toNanos(idleSecond));
+    }
+
+    /**
+     * 获得分布式锁
+     *
+     * @param redisLockKey 在redis中锁的key
+     */
+    public DistributeLock getLock(String redisLockKey) {
+        DistributeLock lock = locks.get(redisLockKey);
+        if (lock != null) {
+            return lock;
+        }
+        lock = new DistributeLock(backend, redisLockKey);
+        lock.setWaitStrategy(waitStrategy);
+        lock.setWaitLimit(waitLimit);
+        return locks.putIfAbsent(redisLockKey, lock);
+    }
+
+    /**
+     * 获得分布式信号量
+     *
+     * @param redisSemaphoreKey 在redis中信号量的key
+     * @param permits           信号量个数 已存在时忽略
+     * @param expireSecond      信号量超时时间 已存在时忽略
+     */
+    public DistributeSemaphore getSemaphore(String redisSemaphoreKey, int permits, int expireSecond) {
+        DistributeSemaphore semaphore = semaphores.get(redisSemaphoreKey);
+        if (semaphore != null) {
+            return semaphore;
+        }
+        semaphore = new DistributeSemaphore(backend, redisSemaphoreKey, permits, expireSecond);
+        semaphore.setWaitStrategy(waitStrategy);
+        semaphore.setWaitLimit(waitLimit);
+        return semaphores.putIfAbsent(redisSemaphoreKey, semaphore);
+    }
+
+    /**
+     * 设置新建对象使用的等待策略 已缓存的对象不受影响
+     *
+     * @param waitStrategy 等待策略
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy != null ? waitStrategy : BlockingWaitStrategy.INSTANCE;
+    }
+
+    /**
+     * 设置新建对象使用的等待上限 已缓存的对象不受影响
+     *
+     * @param waitLimit 等待上限
+     */
+    public void setWaitLimit(WaitLimit waitLimit) {
+        this.waitLimit = waitLimit != null ? waitLimit : WaitLimit.NONE;
+    }
+
+    public DistributeBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * 缓存的锁个数
+     */
+    public int lockCount() {
+        return locks.size();
+    }
+
+    /**
+     * 缓存的信号量个数
+     */
+    public int semaphoreCount() {
+        return semaphores.size();
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        locks.clear();
+        semaphores.clear();
+    }
+}
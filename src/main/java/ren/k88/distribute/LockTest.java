@@ -39,17 +39,29 @@ public class LockTest {
         config.setMaxTotal(2000);
         //最小空闲连接数, 默认0
         config.setMinIdle(1);
-        JedisPool jedisPool = new JedisPool(config, "127.0.0.1", 6379);
-        System.out.println("redis连接成功");
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        //同一个key复用同一个锁对象
+        LockRegistry registry = new LockRegistry(backend);
         count = 0;
         countDownLatch = new CountDownLatch(n);
         begin = System.currentTimeMillis();
         for (int i = 0; i < n; i++) {
-            Thread t = new Thread(new AddSafeThread("safe-" + i, jedisPool));
+            Thread t = new Thread(new AddSafeThread("safe-" + i, registry));
             t.start();
         }
         countDownLatch.await();
         System.out.println("新建【" + n + "】个安全线程，执行后结果为【" + count + "】执行时间【" + (System.currentTimeMillis() - begin) + "】毫秒");
+        //竞争最激烈的锁
+        for (ContentionStat stat : new ContentionReport(backend).topLocks(5)) {
+            System.out.println("竞争统计【" + stat + "】");
+        }
     }
 
 }
@@ -59,15 +71,15 @@ public class LockTest {
  */
 class AddSafeThread implements Runnable {
     private String name;
-    private JedisPool jedisPool;
+    private LockRegistry registry;
 
-    AddSafeThread(String name, JedisPool jedisPool) {
+    AddSafeThread(String name, LockRegistry registry) {
         this.name = name;
-        this.jedisPool = jedisPool;
+        this.registry = registry;
     }
     @Override
     public void run() {
-        DistributeLock lock = new DistributeLock(jedisPool, "add");
+        DistributeLock lock = registry.getLock("add");
         String flag = lock.getThreadFlag();
 
         try {
@@ -0,0 +1,293 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量持锁执行器 同一个锁key的多个小任务合并后在一次获得锁中执行
+ * 原理：当前jvm中提交的任务先放入队列，由一个后台线程取出，达到最大批量个数或等待时间超过最大等待时间后获得一次锁，依次执行整批任务再释放锁，
+ * 每次获得锁的开销（获得、释放、唤醒竞争）分摊到整批任务上
+ * 整批任务执行完并释放锁后，各任务的CompletableFuture才完成；单个任务抛出异常只影响自身的结果；获得锁超时时整批任务以DistributeLockException失败
+ * 问题：任务在后台线程中执行，不能依赖提交线程的ThreadLocal；整批任务的执行时间需小于持有锁超时时间
+ */
+public class LockedBatchExecutor {
+    /**
+     * 默认最大批量个数
+     */
+    private static int MAX_BATCH_SIZE = 100;
+    /**
+     * 默认最大等待毫秒数
+     */
+    private static int LINGER_MILLIS = 5;
+    /**
+     * 持有锁超时时间
+     */
+    private static int LOCK_EXPIRE_SECOND = 60;
+    /**
+     * 等待锁超时时间
+     */
+    private static int WAIT_SECOND = 60;
+    /**
+     * 空闲时检查是否关闭的间隔
+     */
+    private static long IDLE_POLL_MILLIS = 100;
+
+    private DistributeLock lock;
+    /**
+     * 最大批量个数
+     */
+    private int maxBatchSize;
+    /**
+     * 第一个任务到达后 最多再等待的纳秒数
+     */
+    private long lingerNanos;
+    private int expireSecond = LOCK_EXPIRE_SECOND;
+    private int waitSecond = WAIT_SECOND;
+    private final LinkedBlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean shutdown;
+    /**
+     * 已执行的批次数和任务数
+     */
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong taskCount = new AtomicLong();
+
+    /**
+     * 实例化批量持锁执行器
+     *
+     * @param jedisPool    redis连接池
+     * @param redisLockKey 在redis中锁的key
+     */
+    public LockedBatchExecutor(JedisPool jedisPool, String redisLockKey) {
+        this(new JedisDistributeBackend(jedisPool), redisLockKey, MAX_BATCH_SIZE, LINGER_MILLIS);
+    }
+
+    /**
+     * 实例化批量持锁执行器
+     *
+     * @param backend      协调后端
+     * @param redisLockKey 在redis中锁的key
+     * @param maxBatchSize 最大批量个数
+     * @param lingerMillis 第一个任务到达后最多再等待的毫秒数 小于等于0时不等待 只合并已在队列中的任务
+     */
+    public LockedBatchExecutor(DistributeBackend backend, String redisLockKey, int maxBatchSize, int lingerMillis) {
+        this(new DistributeLock(backend, redisLockKey), maxBatchSize, lingerMillis);
+    }
+
+    /**
+     * 实例化批量持锁执行器
+     *
+     * @param lock         分布式锁 可从LockRegistry中获得
+     * @param maxBatchSize 最大批量个数
+     * @param lingerMillis 第一个任务到达后最多再等待的毫秒数 小于等于0时不等待 只合并已在队列中的任务
+     */
+    public LockedBatchExecutor(DistributeLock lock, int maxBatchSize, int lingerMillis) {
+        this.lock = lock;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : 1;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+        this.worker = new Thread(this::run, "locked-batch-" + lock.getKey().getName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task 在锁内执行的任务
+     * @return 整批任务执行完成后完成
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        Task<T> t = new Task<>(task);
+        if (shutdown) {
+            t.future.completeExceptionally(new IllegalStateException("执行器已关闭"));
+            return t.future;
+        }
+        queue.add(t);
+        //与关闭同时发生时后台线程可能已退出 仍在队列中的任务不会再被执行
+        if (shutdown && queue.remove(t)) {
+            t.future.completeExceptionally(new IllegalStateException("执行器已关闭"));
+        }
+        return t.future;
+    }
+
+    /**
+     * 提交任务
+     *
+     * @param task 在锁内执行的任务
+     * @return 整批任务执行完成后完成
+     */
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * 关闭执行器 不再接受新任务 已提交的任务执行完后后台线程退出
+     */
+    public void shutdown() {
+        shutdown = true;
+    }
+
+    /**
+     * 设置持有锁和等待锁的超时时间
+     *
+     * @param expireSecond 持有锁超时秒数
+     * @param waitSecond   等待锁超时秒数
+     */
+    public void setTimeout(int expireSecond, int waitSecond) {
+        this.expireSecond = expireSecond;
+        this.waitSecond = waitSecond;
+    }
+
+    /**
+     * 获得等待执行的任务个数
+     */
+    public int getPending() {
+        return queue.size();
+    }
+
+    /**
+     * 获得已执行的批次数
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 获得已执行的任务数
+     */
+    public long getTaskCount() {
+        return taskCount.get();
+    }
+
+    /**
+     * 获得分布式锁
+     */
+    public DistributeLock getLock() {
+        return lock;
+    }
+
+    private void run() {
+        List<Task<?>> batch = new ArrayList<>(maxBatchSize);
+        while (!shutdown || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shutdown = true;
+            }
+            if (!batch.isEmpty()) {
+                execute(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 取出一批任务 阻塞到第一个任务到达 之后最多等待lingerNanos或达到最大批量个数
+     * 关闭后不再等待 直接取出队列中剩余的任务
+     */
+    private void collect(List<Task<?>> batch) throws InterruptedException {
+        Task<?> first;
+        while ((first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+            if (shutdown) {
+                return;
+            }
+        }
+        batch.add(first);
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        if (shutdown) {
+            return;
+        }
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchSize) {
+            long remain = deadline - System.nanoTime();
+            if (remain <= 0) {
+                return;
+            }
+            Task<?> t = queue.poll(remain, TimeUnit.NANOSECONDS);
+            if (t == null) {
+                return;
+            }
+            batch.add(t);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+    }
+
+    /**
+     * 获得一次锁执行整批任务 释放锁后完成各任务的结果
+     * 线程标识在第一次执行时生成 生成失败时整批任务失败 下一批重试
+     */
+    private void execute(List<Task<?>> batch) {
+        String flag;
+        boolean locked;
+        try {
+            flag = lock.getThreadFlag();
+            locked = lock.tryLock(expireSecond, waitSecond, flag);
+        } catch (RuntimeException e) {
+            for (Task<?> t : batch) {
+                t.future.completeExceptionally(e);
+            }
+            return;
+        }
+        if (!locked) {
+            DistributeLockException e = new DistributeLockException(DistributeLockException.WAIT_LOCK_TIMEOUT, "获取锁超时");
+            for (Task<?> t : batch) {
+                t.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Task<?> t : batch) {
+            t.call();
+        }
+        try {
+            lock.unlock(flag);
+        } catch (RuntimeException e) {
+            //任务已执行 释放失败时等待锁超时自动释放
+        }
+        batchCount.incrementAndGet();
+        taskCount.addAndGet(batch.size());
+        for (Task<?> t : batch) {
+            t.complete();
+        }
+    }
+
+    /**
+     * 等待执行的任务
+     */
+    private static class Task<T> {
+        private final Callable<T> callable;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private Throwable error;
+
+        Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void call() {
+            try {
+                result = callable.call();
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分优先级的分布式信号量 0为最高优先级
+ * 原理：每个优先级有一个等待队列（有序集合 成员为线程标识 分值为等待租约到期时间）和一个通知列表；
+ * 释放时在lua脚本中把信号量直接转交给有等待线程的最高优先级，记为该优先级的预留个数并通知，信号量不回到公共池，新到的线程无法插队；
+ * 获得时如果有更高优先级（或同优先级）未分配到信号量的等待线程，新到的线程进入等待
+ * 防饥饿：设置间隔K后，每K次转交中有一次优先给最低优先级
+ * 问题：等待线程意外关闭时，等待租约到期后才会从等待队列中移除，其预留的信号量在下一次调用时转交给其他等待线程；
+ * 获得信号量的线程意外关闭时，会造成一个信号量无法释放，设置超时时间后已使用个数从0增加时开始计时，超时后全部释放
+ * 每次只能获得一个信号量
+ */
+public class PriorityDistributeSemaphore {
+    /**
+     * 等待信号量默认超时时间
+     */
+    private static int WAIT_SECOND = 60;
+    /**
+     * 单次阻塞等待的最长秒数 每次醒来都会续期等待租约
+     */
+    private static int WAIT_CHUNK_SECOND = 30;
+    /**
+     * 等待租约比单次阻塞等待多出的秒数
+     */
+    private static int LEASE_SLACK_SECOND = 5;
+    /**
+     * 优先级脚本公共部分
+     * 参数：1 key、2 预留hash、3 统计key、4 线程标识、5 优先级、6 信号量个数、7 最大信号量个数、8 防饥饿间隔、9 当前毫秒、10 租约到期毫秒、11 优先级个数、12 持有毫秒数、13 信号量超时秒数、
+     * 之后依次为各优先级的等待队列和通知列表
+     */
+    private static String PRIORITY_COMMON = "local k = tonumber(KEYS[11]);local h = KEYS[2];local s = tonumber(KEYS[8]);"
+            + "local function z(i) return KEYS[14+i];end local function l(i) return KEYS[14+k+i];end "
+            + "local function r(i) return tonumber(redis.call('HGET',h,'r'..i) or '0');end "
+            + "local function pick() if s > 0 and tonumber(redis.call('HGET',h,'g') or '0') % s == s - 1 and redis.call('ZCARD',z(k-1)) > r(k-1) then return k-1;end for i = 0, k-1 do if redis.call('ZCARD',z(i)) > r(i) then return i;end end return -1;end "
+            + "local function free() local i = pick();if i < 0 then if redis.call('DECR',KEYS[1]) < 0 then redis.call('SET',KEYS[1],0);end return;end redis.call('HINCRBY',h,'r'..i,1);redis.call('HINCRBY',h,'g',1);redis.call('RPUSH',l(i),'ok');end "
+            + "local function clean() for i = 0, k-1 do redis.call('ZREMRANGEBYSCORE',z(i),'-inf',KEYS[9]);end for i = 0, k-1 do local e = r(i) - redis.call('ZCARD',z(i));while e > 0 do redis.call('HINCRBY',h,'r'..i,-1);e = e - 1;free();end end end "
+            + "local function waiting() local t = 0;for i = 0, k-1 do t = t + redis.call('ZCARD',z(i));end redis.call('HSET',KEYS[3],'waiting',t);" + DistributeKey.expireStat("KEYS[3]") + "end ";
+    /**
+     * 获得信号量 lua脚本 有预留时直接获得 否则在无更高优先级等待时获得 失败时进入等待队列 已使用个数从0增加时设置超时时间
+     */
+    public static String ACQUIRE_PRIORITY_SCRIPT = PRIORITY_COMMON
+            + "clean();local c = tonumber(KEYS[5]);local me = redis.call('ZSCORE',z(c),KEYS[4]);"
+            + "if me and r(c) > 0 then redis.call('HINCRBY',h,'r'..c,-1);redis.call('ZREM',z(c),KEYS[4]);redis.call('HINCRBY',KEYS[3],'acquired',1);waiting();return 1;end "
+            + "local ok = tonumber(redis.call('GET',KEYS[1]) or '0') < tonumber(KEYS[7]);"
+            + "for i = 0, c - 1 do if ok and redis.call('ZCARD',z(i)) > r(i) then ok = false;end end "
+            + "if ok and not me and redis.call('ZCARD',z(c)) > r(c) then ok = false;end "
+            + "if ok then if redis.call('INCR',KEYS[1]) == 1 and tonumber(KEYS[13]) > 0 then redis.call('EXPIRE',KEYS[1],KEYS[13]);end redis.call('ZREM',z(c),KEYS[4]);redis.call('HINCRBY',KEYS[3],'acquired',1);waiting();return 1;end "
+            + "redis.call('ZADD',z(c),KEYS[10],KEYS[4]);redis.call('HINCRBY',KEYS[3],'failed',1);waiting();return 0";
+    /**
+     * 释放信号量 lua脚本 逐个转交给最高优先级的等待线程 没有等待线程时归还 返回释放后已使用的个数
+     */
+    public static String RELEASE_PRIORITY_SCRIPT = PRIORITY_COMMON
+            + "clean();if KEYS[12] ~= '0' then redis.call('HINCRBY',KEYS[3],'hold',KEYS[12]);end for j = 1, tonumber(KEYS[6]) do free();end waiting();return tonumber(redis.call('GET',KEYS[1]) or '0')";
+    /**
+     * 放弃等待 lua脚本 离开等待队列 多余的预留转交给其他等待线程
+     */
+    public static String CANCEL_PRIORITY_SCRIPT = PRIORITY_COMMON
+            + "redis.call('ZREM',z(tonumber(KEYS[5])),KEYS[4]);clean();waiting();return 0";
+
+    /**
+     * 信号量个数
+     */
+    private int permits;
+    /**
+     * 信号量超时时间 小于等于0时不超时
+     */
+    private int expireSecond;
+    /**
+     * 防饥饿间隔 小于等于0时不开启
+     */
+    private int starvationInterval;
+    private DistributeBackend backend;
+    /**
+     * redis中信号量key、预留hash(reserve)、竞争统计
+     */
+    private DistributeKey key;
+    /**
+     * 各优先级的等待队列和通知列表
+     */
+    private DistributeKey[] priorityKeys;
+    /**
+     * 当前线程获得信号量的时间 用于统计持有时间
+     */
+    private final ThreadLocal<long[]> holdStart = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * 实例化分优先级的分布式信号量
+     *
+     * @param jedisPool          redis连接池
+     * @param redisSemaphoreKey  在redis中信号量的key
+     * @param permits            信号量个数
+     * @param priorities         优先级个数
+     * @param starvationInterval 防饥饿间隔 每隔多少次转交优先给最低优先级 小于等于0时不开启
+     */
+    public PriorityDistributeSemaphore(JedisPool jedisPool, String redisSemaphoreKey, int permits, int priorities, int starvationInterval) {
+        this(new JedisDistributeBackend(jedisPool), redisSemaphoreKey, permits, priorities, starvationInterval, -1);
+    }
+
+    /**
+     * 实例化分优先级的分布式信号量
+     *
+     * @param jedisPool          redis连接池
+     * @param redisSemaphoreKey  在redis中信号量的key
+     * @param permits            信号量个数
+     * @param priorities         优先级个数
+     * @param starvationInterval 防饥饿间隔 每隔多少次转交优先给最低优先级 小于等于0时不开启
+     * @param expireSecond       信号量超时时间 小于等于0时不超时
+     */
+    public PriorityDistributeSemaphore(JedisPool jedisPool, String redisSemaphoreKey, int permits, int priorities, int starvationInterval, int expireSecond) {
+        this(new JedisDistributeBackend(jedisPool), redisSemaphoreKey, permits, priorities, starvationInterval, expireSecond);
+    }
+
+    /**
+     * 实例化分优先级的分布式信号量
+     *
+     * @param backend            协调后端
+     * @param redisSemaphoreKey  在redis中信号量的key
+     * @param permits            信号量个数
+     * @param priorities         优先级个数
+     * @param starvationInterval 防饥饿间隔 每隔多少次转交优先给最低优先级 小于等于0时不开启
+     */
+    public PriorityDistributeSemaphore(DistributeBackend backend, String redisSemaphoreKey, int permits, int priorities, int starvationInterval) {
+        this(backend, redisSemaphoreKey, permits, priorities, starvationInterval, -1);
+    }
+
+    /**
+     * 实例化分优先级的分布式信号量
+     *
+     * @param backend            协调后端
+     * @param redisSemaphoreKey  在redis中信号量的key
+     * @param permits            信号量个数
+     * @param priorities         优先级个数
+     * @param starvationInterval 防饥饿间隔 每隔多少次转交优先给最低优先级 小于等于0时不开启
+     * @param expireSecond       信号量超时时间 小于等于0时不超时
+     */
+    public PriorityDistributeSemaphore(DistributeBackend backend, String redisSemaphoreKey, int permits, int priorities, int starvationInterval, int expireSecond) {
+        this.backend = backend;
+        this.key = DistributeKey.semaphore(redisSemaphoreKey);
+        this.permits = permits > 0 ? permits : 1;
+        this.starvationInterval = starvationInterval;
+        this.expireSecond = expireSecond;
+        this.priorityKeys = new DistributeKey[priorities > 0 ? priorities : 1];
+        for (int i = 0; i < priorityKeys.length; i++) {
+            priorityKeys[i] = key.child("priority:" + i);
+        }
+    }
+
+    /**
+     * 获得可用信号量 非原子操作 结果供参考
+     */
+    public int getSemaphore() {
+        return permits - backend.getUsed(key);
+    }
+
+    /**
+     * 获得单个信号量
+     *
+     * @param priority 优先级 0为最高
+     */
+    public void acquire(int priority) {
+        if (!tryAcquire(priority, WAIT_SECOND)) {
+            throw new DistributeSemaphoreException(DistributeSemaphoreException.WAIT_SEMAPHORE_TIMEOUT, "获取信号量超时");
+        }
+    }
+
+    /**
+     * 获得单个信号量
+     *
+     * @param priority   优先级 0为最高 超出范围时按最近的优先级处理
+     * @param waitSecond 等待超时时间 小于等于0时一直等待
+     * @return true 获得成功 false 超时
+     */
+    public boolean tryAcquire(int priority, int waitSecond) {
+        int p = Math.max(0, Math.min(priorityKeys.length - 1, priority));
+        String flag = DistributeLock.getThreadFlag(backend);
+        long deadline = waitSecond > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(waitSecond) : Long.MAX_VALUE;
+        while (true) {
+            long remain = deadline - System.currentTimeMillis();
+            int chunk = (int) Math.min(WAIT_CHUNK_SECOND, Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remain)));
+            if (expireSecond > 0) {
+                //超时释放时没有通知 至少每个超时时间重试一次
+                chunk = Math.min(chunk, expireSecond);
+            }
+            int leaseMillis = (int) TimeUnit.SECONDS.toMillis(chunk + LEASE_SLACK_SECOND);
+            if (backend.tryAcquirePriority(key, priorityKeys, p, flag, permits, expireSecond, starvationInterval, leaseMillis)) {
+                long[] start = holdStart.get();
+                if (start[0] == 0) {
+                    start[0] = System.nanoTime();
+                }
+                return true;
+            }
+            if (remain <= 0) {
+                //如果超时则离开等待队列
+                backend.cancelWaitPriority(key, priorityKeys, p, flag, starvationInterval);
+                return false;
+            }
+            //阻塞等待本优先级的通知 醒来后重试并续期等待租约
+            backend.await(priorityKeys[p], chunk);
+        }
+    }
+
+    /**
+     * 释放单个信号量
+     */
+    public void release() {
+        release(1);
+    }
+
+    /**
+     * 释放信号量 优先转交给高优先级的等待线程
+     *
+     * @param n 信号量个数
+     */
+    public void release(int n) {
+        long[] start = holdStart.get();
+        long holdNanos = start[0] != 0 ? System.nanoTime() - start[0] : 0;
+        backend.releasePriority(key, priorityKeys, n, starvationInterval, (int) TimeUnit.NANOSECONDS.toMillis(holdNanos));
+        start[0] = 0;
+    }
+
+    /**
+     * 获得redis中的key
+     */
+    public DistributeKey getKey() {
+        return key;
+    }
+}
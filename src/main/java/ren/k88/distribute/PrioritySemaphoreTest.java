@@ -0,0 +1,96 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分优先级信号量测试 低优先级线程持续占满信号量时 比较普通信号量和分优先级信号量下高优先级线程获得信号量的p99等待时间
+ */
+public class PrioritySemaphoreTest {
+    //信号量个数
+    public static int permits = 4;
+    //低优先级线程数
+    public static int low = 16;
+    //高优先级线程数
+    public static int high = 4;
+    //每个高优先级线程获得次数
+    public static int times = 100;
+    //临界区耗时毫秒数
+    public static long holdMillis = 2;
+    //停止低优先级线程
+    private static volatile boolean stop;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(200);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        DistributeSemaphore semaphore = new DistributeSemaphore(backend, "priority:plain", permits, 60);
+        run("普通信号量", p -> semaphore.acquire(), p -> semaphore.release());
+        PriorityDistributeSemaphore prioritySemaphore = new PriorityDistributeSemaphore(backend, "priority:test", permits, 2, 0);
+        run("分优先级信号量", prioritySemaphore::acquire, p -> prioritySemaphore.release());
+    }
+
+    private static void run(String name, Op acquire, Op release) throws Exception {
+        CountDownLatch done = new CountDownLatch(high);
+        long[] waits = new long[high * times];
+        stop = false;
+        for (int i = 0; i < low; i++) {
+            Thread t = new Thread(() -> {
+                while (!stop) {
+                    acquire.apply(1);
+                    hold();
+                    release.apply(1);
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < high; i++) {
+            int offset = i * times;
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < times; j++) {
+                    long start = System.nanoTime();
+                    acquire.apply(0);
+                    waits[offset + j] = System.nanoTime() - start;
+                    hold();
+                    release.apply(0);
+                }
+                done.countDown();
+            });
+            t.start();
+        }
+        done.await();
+        stop = true;
+        Arrays.sort(waits);
+        System.out.println("【" + name + "】【" + low + "】个低优先级线程 【" + high + "】个高优先级线程各获得【" + times + "】次 执行时间【"
+                + (System.currentTimeMillis() - begin) + "】毫秒 高优先级等待 p50【" + TimeUnit.NANOSECONDS.toMicros(waits[waits.length / 2])
+                + "】微秒 p99【" + TimeUnit.NANOSECONDS.toMicros(waits[waits.length * 99 / 100]) + "】微秒");
+        //等待低优先级线程退出
+        Thread.sleep(200);
+    }
+
+    private static void hold() {
+        try {
+            Thread.sleep(holdMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Op {
+        void apply(int priority);
+    }
+}
@@ -30,14 +30,20 @@ public class SemaphoreTest {
         config.setMaxTotal(2000);
         //最小空闲连接数, 默认0
         config.setMinIdle(1);
-        JedisPool jedisPool = new JedisPool(config, "127.0.0.1", 6379);
-        System.out.println("redis连接成功");
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
         SemaphoreTest.countDownLatch = new CountDownLatch(n);
         //定时释放
-//        scheduled.scheduleAtFixedRate(new ReleaseTask(jedisPool, permits), 3, 3, TimeUnit.SECONDS);
+//        scheduled.scheduleAtFixedRate(new ReleaseTask(backend, permits), 3, 3, TimeUnit.SECONDS);
         long begin = System.currentTimeMillis();
         for (int i = 0; i < n; i++) {
-            Thread t = new Thread(new DoTask(jedisPool, permits, "thread-" + i));
+            Thread t = new Thread(new DoTask(backend, permits, "thread-" + i));
             t.start();
         }
         countDownLatch.await();
@@ -52,18 +58,18 @@ public class SemaphoreTest {
  */
 class DoTask implements Runnable {
     private String name;
-    private JedisPool jedisPool;
+    private DistributeBackend backend;
     private int permits;
 
-    public DoTask(JedisPool jedisPool, int permits, String name) {
-        this.jedisPool = jedisPool;
+    public DoTask(DistributeBackend backend, int permits, String name) {
+        this.backend = backend;
         this.permits = permits;
         this.name = name;
     }
 
     @Override
     public void run() {
-        DistributeSemaphore semaphore = new DistributeSemaphore(jedisPool, "cps", permits, 10);
+        DistributeSemaphore semaphore = new DistributeSemaphore(backend, "cps", permits, 10);
         semaphore.acquire();
         int n = SemaphoreTest.atomicInteger.incrementAndGet();
         System.out.println("-- 线程【" + name + "】获得信号量 可用信号量【" + semaphore.getSemaphore() + "】累加结果【" + n + "】");
@@ -79,17 +85,17 @@ class DoTask implements Runnable {
  * 释放线程
  */
 class ReleaseTask implements Runnable {
-    private JedisPool jedisPool;
+    private DistributeBackend backend;
     private int permits;
 
-    public ReleaseTask(JedisPool jedisPool, int permits) {
-        this.jedisPool = jedisPool;
+    public ReleaseTask(DistributeBackend backend, int permits) {
+        this.backend = backend;
         this.permits = permits;
     }
 
     @Override
     public void run() {
-        DistributeSemaphore semaphore = new DistributeSemaphore(jedisPool, "cps", permits, 10);
+        DistributeSemaphore semaphore = new DistributeSemaphore(backend, "cps", permits, 10);
         System.out.println("释放前 可用信号量【" + semaphore.getSemaphore() + "】");
         semaphore.releaseAll();
         SemaphoreTest.atomicInteger.set(0);
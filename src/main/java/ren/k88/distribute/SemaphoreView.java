@@ -0,0 +1,210 @@
+package ren.k88.distribute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 信号量可用个数的本地视图 供监控和准入判断使用
+ * 原理：注册的信号量由后台线程定期批量读取已使用个数（redis中为分批MGET），读取可用个数时直接返回本地缓存的值，不访问redis；
+ * 读取不加锁，与获得、释放不竞争，结果最多延迟一个刷新间隔，只供参考
+ */
+public class SemaphoreView {
+    /**
+     * 默认刷新间隔毫秒数
+     */
+    private static int REFRESH_MILLIS = 1000;
+    private DistributeBackend backend;
+    /**
+     * 信号量名称到缓存
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduled;
+    /**
+     * 最近一次刷新完成的时间
+     */
+    private volatile long refreshedAt;
+
+    /**
+     * 实例化信号量视图
+     *
+     * @param backend 协调后端
+     */
+    public SemaphoreView(DistributeBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * 批量读取可用信号量 一次请求 不缓存
+     *
+     * @param backend    协调后端
+     * @param semaphores 信号量
+     * @return 与信号量一一对应的可用个数
+     */
+    public static int[] getSemaphores(DistributeBackend backend, List<DistributeSemaphore> semaphores) {
+        DistributeKey[] keys = new DistributeKey[semaphores.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = semaphores.get(i).getKey();
+        }
+        int[] used = backend.getUsed(keys);
+        for (int i = 0; i < used.length; i++) {
+            used[i] = Math.max(0, semaphores.get(i).getPermits() - used[i]);
+        }
+        return used;
+    }
+
+    /**
+     * 注册信号量 下一次刷新后可读取
+     *
+     * @param semaphore 信号量
+     */
+    public void register(DistributeSemaphore semaphore) {
+        register(semaphore.getKey(), semaphore.getPermits());
+    }
+
+    /**
+     * 注册信号量 已注册时更新信号量个数
+     *
+     * @param key     信号量key
+     * @param permits 信号量个数
+     */
+    public void register(DistributeKey key, int permits) {
+        Entry e = entries.computeIfAbsent(key.getName(), k -> new Entry(key));
+        e.permits = permits;
+    }
+
+    /**
+     * 取消注册
+     *
+     * @param name 信号量名称
+     */
+    public void unregister(String name) {
+        entries.remove(name);
+    }
+
+    /**
+     * 获得缓存的可用信号量 不访问redis
+     *
+     * @param name 信号量名称
+     * @return 可用个数 未注册或未刷新时为-1
+     */
+    public int getSemaphore(String name) {
+        Entry e = entries.get(name);
+        if (e == null || e.used < 0) {
+            return -1;
+        }
+        return Math.max(0, e.permits - e.used);
+    }
+
+    /**
+     * 获得缓存的已使用信号量 不访问redis
+     *
+     * @param name 信号量名称
+     * @return 已使用个数 未注册或未刷新时为-1
+     */
+    public int getUsed(String name) {
+        Entry e = entries.get(name);
+        return e == null ? -1 : e.used;
+    }
+
+    /**
+     * 立即批量刷新所有注册的信号量
+     */
+    public void refresh() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        if (list.isEmpty()) {
+            refreshedAt = System.currentTimeMillis();
+            return;
+        }
+        DistributeKey[] keys = new DistributeKey[list.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = list.get(i).key;
+        }
+        int[] used = backend.getUsed(keys);
+        for (int i = 0; i < used.length; i++) {
+            list.get(i).used = used[i];
+        }
+        refreshedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 开始后台刷新
+     *
+     * @param refreshMillis 刷新间隔毫秒数 小于等于0时使用默认值
+     */
+    public synchronized void start(int refreshMillis) {
+        if (scheduled != null) {
+            return;
+        }
+        scheduled = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "semaphore-view");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = refreshMillis > 0 ? refreshMillis : REFRESH_MILLIS;
+        scheduled.scheduleWithFixedDelay(() -> {
+            try {
+                refresh();
+            } catch (RuntimeException e) {
+                //刷新失败时保留上一次的值 下次重试
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台刷新
+     */
+    public synchronized void stop() {
+        if (scheduled != null) {
+            scheduled.shutdownNow();
+            scheduled = null;
+        }
+    }
+
+    /**
+     * 最近一次刷新完成的时间 毫秒
+     */
+    public long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    /**
+     * 注册的信号量个数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 所有注册信号量的缓存可用个数
+     */
+    public Map<String, Integer> snapshot() {
+        Map<String, Integer> m = new LinkedHashMap<>();
+        for (String name : entries.keySet()) {
+            m.put(name, getSemaphore(name));
+        }
+        return m;
+    }
+
+    /**
+     * 缓存项
+     */
+    private static class Entry {
+        private final DistributeKey key;
+        private volatile int permits;
+        /**
+         * 已使用个数 未刷新时为-1
+         */
+        private volatile int used = -1;
+
+        Entry(DistributeKey key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 信号量视图测试 大量信号量时比较逐个读取、批量读取和读取本地缓存的耗时
+ */
+public class SemaphoreViewTest {
+    //信号量个数
+    public static int n = 5000;
+    //读取轮数
+    public static int rounds = 5;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        String prefix = "view:" + System.nanoTime() + ":";
+        List<DistributeSemaphore> semaphores = new ArrayList<>();
+        SemaphoreView view = new SemaphoreView(backend);
+        long expect = 0;
+        for (int i = 0; i < n; i++) {
+            DistributeSemaphore semaphore = new DistributeSemaphore(backend, prefix + i, 10, 600);
+            //部分信号量被占用
+            int used = i % 4;
+            if (used > 0) {
+                semaphore.tryAcquire(used, 0);
+            }
+            expect += 10 - used;
+            semaphores.add(semaphore);
+            view.register(semaphore);
+        }
+
+        long begin = System.nanoTime();
+        long sum = 0;
+        for (int r = 0; r < rounds; r++) {
+            sum = 0;
+            for (DistributeSemaphore semaphore : semaphores) {
+                sum += semaphore.getSemaphore();
+            }
+        }
+        print("逐个读取", begin, sum, expect);
+
+        begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sum = 0;
+            for (int available : SemaphoreView.getSemaphores(backend, semaphores)) {
+                sum += available;
+            }
+        }
+        print("批量读取", begin, sum, expect);
+
+        view.refresh();
+        begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            sum = 0;
+            for (DistributeSemaphore semaphore : semaphores) {
+                sum += view.getSemaphore(semaphore.getKey().getName());
+            }
+        }
+        print("读取缓存", begin, sum, expect);
+    }
+
+    private static void print(String name, long begin, long sum, long expect) {
+        long cost = System.nanoTime() - begin;
+        System.out.println("【" + name + "】【" + n + "】个信号量读取【" + rounds + "】轮 每轮耗时【" + cost / rounds / 1000 + "】微秒 可用合计【"
+                + sum + "】 期望【" + expect + "】");
+    }
+}
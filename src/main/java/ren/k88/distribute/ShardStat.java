@@ -0,0 +1,79 @@
+package ren.k88.distribute;
+
+/**
+ * 分片状态 健康状况和请求耗时
+ */
+public class ShardStat {
+    /**
+     * 分片名称
+     */
+    private String name;
+    /**
+     * 是否健康 连续失败次数未超过阈值
+     */
+    private boolean healthy;
+    /**
+     * 请求次数 不包括阻塞等待
+     */
+    private long calls;
+    /**
+     * 失败次数
+     */
+    private long errors;
+    /**
+     * 请求耗时的滑动平均值 微秒
+     */
+    private long avgLatencyMicros;
+    /**
+     * 最近一次健康检查的耗时 微秒 未检查或失败时为-1
+     */
+    private long pingMicros;
+    /**
+     * 在哈希环上分到的比例
+     */
+    private double ringShare;
+
+    public ShardStat(String name, boolean healthy, long calls, long errors, long avgLatencyMicros, long pingMicros, double ringShare) {
+        this.name = name;
+        this.healthy = healthy;
+        this.calls = calls;
+        this.errors = errors;
+        this.avgLatencyMicros = avgLatencyMicros;
+        this.pingMicros = pingMicros;
+        this.ringShare = ringShare;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getAvgLatencyMicros() {
+        return avgLatencyMicros;
+    }
+
+    public long getPingMicros() {
+        return pingMicros;
+    }
+
+    public double getRingShare() {
+        return ringShare;
+    }
+
+    @Override
+    public String toString() {
+        return name + " healthy=" + healthy + " calls=" + calls + " errors=" + errors + " avgLatency=" + avgLatencyMicros
+                + "us ping=" + pingMicros + "us share=" + String.format("%.3f", ringShare);
+    }
+}
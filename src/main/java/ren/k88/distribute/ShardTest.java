@@ -0,0 +1,88 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分片测试 统计增加分片时迁移的key比例 比较不同分片数下获得释放锁的吞吐量
+ * 默认使用本机 6379、6380、6381 三个redis 参数为local时使用jvm内存后端
+ */
+public class ShardTest {
+    //线程数
+    public static int n = 64;
+    //每个线程获得锁次数
+    public static int times = 2000;
+    //锁key个数
+    public static int keys = 10000;
+    public static int[] ports = {6379, 6380, 6381};
+
+    public static void main(String[] args) throws Exception {
+        boolean local = args.length > 0 && "local".equals(args[0]);
+        List<String> names = new ArrayList<>();
+        List<DistributeBackend> backends = new ArrayList<>();
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(200);
+        for (int i = 0; i < ports.length; i++) {
+            names.add("shard-" + i);
+            backends.add(local ? new LocalDistributeBackend() : new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", ports[i])));
+        }
+        moved(names, backends);
+        for (int s = 1; s <= backends.size(); s++) {
+            ShardedDistributeBackend sharded = new ShardedDistributeBackend(names.subList(0, s), backends.subList(0, s), 160);
+            run(sharded);
+            for (ShardStat stat : sharded.checkHealth()) {
+                System.out.println("    " + stat);
+            }
+        }
+    }
+
+    /**
+     * 统计从N-1个分片增加到N个分片时迁移的key比例
+     */
+    private static void moved(List<String> names, List<DistributeBackend> backends) {
+        int s = backends.size();
+        ShardedDistributeBackend before = new ShardedDistributeBackend(names.subList(0, s - 1), backends.subList(0, s - 1), 160);
+        ShardedDistributeBackend after = new ShardedDistributeBackend(names, backends, 160);
+        int moved = 0;
+        int total = 100000;
+        for (int i = 0; i < total; i++) {
+            if (!before.getShard("key-" + i).equals(after.getShard("key-" + i))) {
+                moved++;
+            }
+        }
+        System.out.println("分片数【" + (s - 1) + "】增加到【" + s + "】 【" + total + "】个key中迁移【" + moved + "】个 理论值【" + total / s + "】");
+    }
+
+    private static void run(ShardedDistributeBackend backend) throws Exception {
+        LockRegistry registry = new LockRegistry(backend);
+        CountDownLatch countDownLatch = new CountDownLatch(n);
+        AtomicLong failed = new AtomicLong();
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            int offset = i;
+            Thread t = new Thread(() -> {
+                String flag = registry.getLock("shard:0").getThreadFlag();
+                for (int j = 0; j < times; j++) {
+                    DistributeLock lock = registry.getLock("shard:" + (offset * times + j) % keys);
+                    if (lock.tryLock(10, 10, flag)) {
+                        lock.unlock(flag);
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                }
+                countDownLatch.countDown();
+            });
+            t.start();
+        }
+        countDownLatch.await();
+        long cost = Math.max(1, System.currentTimeMillis() - begin);
+        System.out.println("分片数【" + backend.getShardCount() + "】【" + n + "】个线程各获得释放锁【" + times + "】次 执行时间【" + cost + "】毫秒 吞吐量【"
+                + (long) n * times * 1000 / cost + "】次/秒 失败【" + failed.get() + "】");
+    }
+}
@@ -0,0 +1,472 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 分片的协调后端 多个独立的redis共同承担锁、信号量
+ * 原理：每个分片在哈希环上有多个虚拟节点，锁、信号量按分片名称（DistributeKey.getShardName）的哈希值顺时针找到第一个虚拟节点，同一个锁、信号量的所有key都在同一个分片上，
+ * lua脚本不需要跨分片；增加分片时只有落在新分片虚拟节点上的key会迁移，约占 1/(N+1)
+ * 每个分片记录请求次数、失败次数和请求耗时，连续失败超过阈值时标记为不健康，checkHealth 主动检查并记录耗时
+ * 问题：分片不健康时不会切换到其他分片，否则同一个锁可能在两个分片上同时被获得；增加分片时迁移的key上正在持有的锁、信号量状态不会迁移，应在低峰期操作
+ */
+public class ShardedDistributeBackend implements DistributeBackend {
+    /**
+     * 默认每个分片的虚拟节点数
+     */
+    private static int VIRTUAL_NODES = 160;
+    /**
+     * 连续失败多少次后标记为不健康
+     */
+    private static int UNHEALTHY_ERRORS = 3;
+    /**
+     * 线程标识序号的路由名称
+     */
+    private static String THREAD_FLAG_SHARD = "thread:flag";
+    /**
+     * 最大分片数 线程标识 = 分片序号 * MAX_SHARDS + 分片下标 保证不同分片生成的标识不重复
+     */
+    private static int MAX_SHARDS = 1024;
+    /**
+     * 健康检查读取的key
+     */
+    private static DistributeKey HEALTH_KEY = DistributeKey.semaphore("health");
+    private static double RING_SIZE = Math.pow(2, 64);
+
+    private final List<Shard> shards;
+    /**
+     * 哈希环 虚拟节点哈希值到分片
+     */
+    private final TreeMap<Long, Shard> ring = new TreeMap<>();
+
+    /**
+     * 实例化分片的协调后端 分片名称为 shard-下标 增加分片时追加在末尾
+     *
+     * @param jedisPools 各分片的redis连接池
+     */
+    public ShardedDistributeBackend(List<JedisPool> jedisPools) {
+        this(names(jedisPools.size()), backends(jedisPools), VIRTUAL_NODES);
+    }
+
+    /**
+     * 实例化分片的协调后端
+     *
+     * @param names        分片名称 决定虚拟节点的位置 重启和增加分片时需保持不变
+     * @param backends     各分片的协调后端 与名称一一对应
+     * @param virtualNodes 每个分片的虚拟节点数
+     */
+    public ShardedDistributeBackend(List<String> names, List<? extends DistributeBackend> backends, int virtualNodes) {
+        if (backends.isEmpty() || names.size() != backends.size() || backends.size() > MAX_SHARDS) {
+            throw new IllegalArgumentException("分片个数错误");
+        }
+        List<Shard> list = new ArrayList<>(backends.size());
+        for (int i = 0; i < backends.size(); i++) {
+            Shard shard = new Shard(i, names.get(i), backends.get(i));
+            list.add(shard);
+            for (int v = 0; v < Math.max(1, virtualNodes); v++) {
+                ring.put(hash(shard.name + "#" + v), shard);
+            }
+        }
+        this.shards = Collections.unmodifiableList(list);
+        //统计每个分片在哈希环上分到的比例
+        long prev = ring.lastKey();
+        for (Map.Entry<Long, Shard> e : ring.entrySet()) {
+            long d = e.getKey() - prev;
+            //按无符号数计算与前一个虚拟节点的距离
+            e.getValue().share += ring.size() == 1 ? 1 : ((d >>> 1) * 2.0 + (d & 1)) / RING_SIZE;
+            prev = e.getKey();
+        }
+    }
+
+    @Override
+    public long nextThreadFlag() {
+        Shard s = route(THREAD_FLAG_SHARD);
+        return call(s, s.backend::nextThreadFlag) * MAX_SHARDS + s.index;
+    }
+
+    @Override
+    public boolean tryLock(DistributeKey key, String flag, int expireSecond, boolean waiting, WaitLimit limit) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.tryLock(key, flag, expireSecond, waiting, limit));
+    }
+
+    @Override
+    public int unlock(DistributeKey key, String flag, int holdMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.unlock(key, flag, holdMillis));
+    }
+
+    @Override
+    public boolean await(DistributeKey key, int waitSecond) {
+        //阻塞等待不计入耗时
+        Shard s = shard(key);
+        try {
+            boolean r = s.backend.await(key, waitSecond);
+            s.errorsInRow.set(0);
+            return r;
+        } catch (RuntimeException e) {
+            s.onError();
+            throw e;
+        }
+    }
+
+    @Override
+    public int awaitAny(DistributeKey[] keys, int waitSecond) {
+        Shard s = shard(keys[0]);
+        for (DistributeKey key : keys) {
+            if (shard(key) != s) {
+                throw new IllegalArgumentException("等待的key不在同一个分片上");
+            }
+        }
+        return call(s, () -> s.backend.awaitAny(keys, waitSecond));
+    }
+
+    @Override
+    public void notifyWaiters(DistributeKey key, int n) {
+        Shard s = shard(key);
+        call(s, () -> {
+            s.backend.notifyWaiters(key, n);
+            return null;
+        });
+    }
+
+    @Override
+    public void expireNotify(DistributeKey key, int expireSecond) {
+        Shard s = shard(key);
+        call(s, () -> {
+            s.backend.expireNotify(key, expireSecond);
+            return null;
+        });
+    }
+
+    @Override
+    public void cancelWait(DistributeKey key, String flag) {
+        Shard s = shard(key);
+        call(s, () -> {
+            s.backend.cancelWait(key, flag);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean tryAcquire(DistributeKey key, String flag, int n, int permits, int expireSecond, boolean waiting, WaitLimit limit) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.tryAcquire(key, flag, n, permits, expireSecond, waiting, limit));
+    }
+
+    @Override
+    public boolean tryAcquireLimited(DistributeKey key, String flag, int n, int initLimit, int expireSecond, boolean waiting, WaitLimit limit) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.tryAcquireLimited(key, flag, n, initLimit, expireSecond, waiting, limit));
+    }
+
+    @Override
+    public int getLimit(DistributeKey key, int initLimit) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.getLimit(key, initLimit));
+    }
+
+    @Override
+    public int compareAndSetLimit(DistributeKey key, int initLimit, int expect, int update) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.compareAndSetLimit(key, initLimit, expect, update));
+    }
+
+    @Override
+    public int release(DistributeKey key, int n, int holdMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.release(key, n, holdMillis));
+    }
+
+    @Override
+    public int releaseAll(DistributeKey key) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.releaseAll(key));
+    }
+
+    @Override
+    public int getUsed(DistributeKey key) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.getUsed(key));
+    }
+
+    /**
+     * 按分片分组 每个分片一次批量读取
+     */
+    @Override
+    public int[] getUsed(DistributeKey[] keys) {
+        Map<Shard, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            groups.computeIfAbsent(shard(keys[i]), k -> new ArrayList<>()).add(i);
+        }
+        int[] used = new int[keys.length];
+        for (Map.Entry<Shard, List<Integer>> e : groups.entrySet()) {
+            Shard s = e.getKey();
+            List<Integer> index = e.getValue();
+            DistributeKey[] part = new DistributeKey[index.size()];
+            for (int i = 0; i < part.length; i++) {
+                part[i] = keys[index.get(i)];
+            }
+            int[] r = call(s, () -> s.backend.getUsed(part));
+            for (int i = 0; i < part.length; i++) {
+                used[index.get(i)] = r[i];
+            }
+        }
+        return used;
+    }
+
+    @Override
+    public boolean tryAcquirePriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int permits, int expireSecond, int starvationInterval, int leaseMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.tryAcquirePriority(key, priorityKeys, priority, flag, permits, expireSecond, starvationInterval, leaseMillis));
+    }
+
+    @Override
+    public int releasePriority(DistributeKey key, DistributeKey[] priorityKeys, int n, int starvationInterval, int holdMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.releasePriority(key, priorityKeys, n, starvationInterval, holdMillis));
+    }
+
+    @Override
+    public void cancelWaitPriority(DistributeKey key, DistributeKey[] priorityKeys, int priority, String flag, int starvationInterval) {
+        Shard s = shard(key);
+        call(s, () -> {
+            s.backend.cancelWaitPriority(key, priorityKeys, priority, flag, starvationInterval);
+            return null;
+        });
+    }
+
+    @Override
+    public int submitTasks(DistributeKey dispatchKey, String[] ids, String[] payloads) {
+        Shard s = shard(dispatchKey);
+        return call(s, () -> s.backend.submitTasks(dispatchKey, ids, payloads));
+    }
+
+    @Override
+    public List<String> claimTasks(DistributeKey key, DistributeKey dispatchKey, int permits, int max, long leaseMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.claimTasks(key, dispatchKey, permits, max, leaseMillis));
+    }
+
+    @Override
+    public int completeTasks(DistributeKey key, DistributeKey dispatchKey, String[] ids, int holdMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.completeTasks(key, dispatchKey, ids, holdMillis));
+    }
+
+    @Override
+    public int renewTasks(DistributeKey dispatchKey, String[] ids, long leaseMillis) {
+        Shard s = shard(dispatchKey);
+        return call(s, () -> s.backend.renewTasks(dispatchKey, ids, leaseMillis));
+    }
+
+    @Override
+    public int getQueued(DistributeKey dispatchKey) {
+        Shard s = shard(dispatchKey);
+        return call(s, () -> s.backend.getQueued(dispatchKey));
+    }
+
+    @Override
+    public long campaign(DistributeKey key, String flag, long leaseMillis) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.campaign(key, flag, leaseMillis));
+    }
+
+    @Override
+    public boolean resign(DistributeKey key, String flag) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.resign(key, flag));
+    }
+
+    @Override
+    public String getLeader(DistributeKey key) {
+        Shard s = shard(key);
+        return call(s, () -> s.backend.getLeader(key));
+    }
+
+    /**
+     * 依次遍历所有分片的竞争统计
+     */
+    @Override
+    public void scanStats(String statKeyPrefix, Consumer<ContentionStat> consumer) {
+        for (Shard s : shards) {
+            call(s, () -> {
+                s.backend.scanStats(statKeyPrefix, consumer);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 主动检查所有分片 读取一个key并记录耗时 成功时恢复为健康
+     *
+     * @return 各分片状态
+     */
+    public List<ShardStat> checkHealth() {
+        for (Shard s : shards) {
+            long start = System.nanoTime();
+            try {
+                s.backend.getUsed(HEALTH_KEY);
+                s.pingNanos = System.nanoTime() - start;
+                s.errorsInRow.set(0);
+            } catch (RuntimeException e) {
+                s.pingNanos = -1;
+                s.onError();
+            }
+        }
+        return getShardStats();
+    }
+
+    /**
+     * 获得各分片状态
+     */
+    public List<ShardStat> getShardStats() {
+        List<ShardStat> stats = new ArrayList<>(shards.size());
+        for (Shard s : shards) {
+            stats.add(new ShardStat(s.name, s.isHealthy(), s.calls.get(), s.errors.get(), TimeUnit.NANOSECONDS.toMicros(s.avgNanos),
+                    s.pingNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(s.pingNanos), s.share));
+        }
+        return stats;
+    }
+
+    /**
+     * 获得key所在分片的名称
+     *
+     * @param shardName 锁、信号量的分片名称
+     */
+    public String getShard(String shardName) {
+        return route(shardName).name;
+    }
+
+    /**
+     * 获得分片个数
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    private Shard shard(DistributeKey key) {
+        return route(key.getShardName());
+    }
+
+    /**
+     * 获得key所在分片的后端
+     */
+    DistributeBackend getBackend(DistributeKey key) {
+        return shard(key).backend;
+    }
+
+    /**
+     * 在哈希环上顺时针找到第一个虚拟节点
+     */
+    private Shard route(String shardName) {
+        Map.Entry<Long, Shard> e = ring.ceilingEntry(hash(shardName));
+        return e != null ? e.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * 执行请求 记录耗时和失败次数
+     */
+    private static <T> T call(Shard s, Supplier<T> op) {
+        long start = System.nanoTime();
+        try {
+            T r = op.get();
+            s.onSuccess(System.nanoTime() - start);
+            return r;
+        } catch (DistributeRejectedException e) {
+            //拒绝是正常结果 不计入失败
+            s.onSuccess(System.nanoTime() - start);
+            throw e;
+        } catch (RuntimeException e) {
+            s.onError();
+            throw e;
+        }
+    }
+
+    /**
+     * 64位FNV-1a哈希 再做一次混合使虚拟节点分布均匀
+     */
+    private static long hash(String str) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            h ^= str.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static List<String> names(int n) {
+        List<String> names = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            names.add("shard-" + i);
+        }
+        return names;
+    }
+
+    private static List<DistributeBackend> backends(List<JedisPool> jedisPools) {
+        List<DistributeBackend> backends = new ArrayList<>(jedisPools.size());
+        for (JedisPool jedisPool : jedisPools) {
+            backends.add(new JedisDistributeBackend(jedisPool));
+        }
+        return backends;
+    }
+
+    /**
+     * 分片
+     */
+    private static class Shard {
+        private final int index;
+        private final String name;
+        private final DistributeBackend backend;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicInteger errorsInRow = new AtomicInteger();
+        /**
+         * 请求耗时的滑动平均值 并发更新时可能丢失个别样本
+         */
+        private volatile long avgNanos;
+        private volatile long pingNanos = -1;
+        private double share;
+
+        Shard(int index, String name, DistributeBackend backend) {
+            this.index = index;
+            this.name = name;
+            this.backend = backend;
+        }
+
+        void onSuccess(long nanos) {
+            calls.incrementAndGet();
+            if (errorsInRow.get() != 0) {
+                errorsInRow.set(0);
+            }
+            long avg = avgNanos;
+            avgNanos = avg == 0 ? nanos : avg + (nanos - avg) / 8;
+        }
+
+        void onError() {
+            calls.incrementAndGet();
+            errors.incrementAndGet();
+            errorsInRow.incrementAndGet();
+        }
+
+        boolean isHealthy() {
+            return errorsInRow.get() < UNHEALTHY_ERRORS;
+        }
+    }
+}
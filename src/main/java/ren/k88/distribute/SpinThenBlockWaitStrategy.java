@@ -0,0 +1,115 @@
+package ren.k88.distribute;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 先重试后阻塞的等待策略 适用于持有时间很短、与redis往返耗时较长的临界区
+ * 原理：记录持有时间的滑动平均值，平均持有时间小于阈值时先以带随机抖动的指数退避重试若干次，仍未获得再阻塞等待通知；
+ * 退避不超过平均持有时间，释放后不会因为等待线程还在退避而空闲；
+ * 平均持有时间超过阈值、或当前jvm中同一个key已有多个等待线程时直接阻塞，排在后面的线程重试也无法获得，只会增加redis的负载
+ * 问题：redis在本机时阻塞等待的通知只需几十微秒，重试没有收益，见 WaitStrategyTest
+ */
+public class SpinThenBlockWaitStrategy implements WaitStrategy {
+    /**
+     * 重试次数
+     */
+    private int maxSpins;
+    /**
+     * 最小退避纳秒数
+     */
+    private long minBackoffNanos;
+    /**
+     * 最大退避纳秒数
+     */
+    private long maxBackoffNanos;
+    /**
+     * 平均持有时间超过该值时直接阻塞
+     */
+    private long spinThresholdNanos;
+    /**
+     * 当前jvm中该key的等待线程数（包括自身）超过该值时直接阻塞 小于等于0时不限制
+     */
+    private int maxSpinWaiters;
+    /**
+     * 持有时间滑动平均值
+     */
+    private final AtomicLong avgHoldNanos = new AtomicLong();
+
+    /**
+     * 实例化先重试后阻塞的等待策略 重试5次 退避50微秒到1毫秒 平均持有时间1毫秒以内、当前jvm中只有自身等待时重试
+     */
+    public SpinThenBlockWaitStrategy() {
+        this(5, TimeUnit.MICROSECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1), 1);
+    }
+
+    /**
+     * 实例化先重试后阻塞的等待策略
+     *
+     * @param maxSpins           重试次数
+     * @param minBackoffNanos    最小退避纳秒数
+     * @param maxBackoffNanos    最大退避纳秒数 实际不超过平均持有时间
+     * @param spinThresholdNanos 平均持有时间超过该值时直接阻塞
+     */
+    public SpinThenBlockWaitStrategy(int maxSpins, long minBackoffNanos, long maxBackoffNanos, long spinThresholdNanos) {
+        this(maxSpins, minBackoffNanos, maxBackoffNanos, spinThresholdNanos, 0);
+    }
+
+    /**
+     * 实例化先重试后阻塞的等待策略
+     *
+     * @param maxSpins           重试次数
+     * @param minBackoffNanos    最小退避纳秒数
+     * @param maxBackoffNanos    最大退避纳秒数 实际不超过平均持有时间
+     * @param spinThresholdNanos 平均持有时间超过该值时直接阻塞
+     * @param maxSpinWaiters     当前jvm中该key的等待线程数超过该值时直接阻塞 小于等于0时不限制
+     */
+    public SpinThenBlockWaitStrategy(int maxSpins, long minBackoffNanos, long maxBackoffNanos, long spinThresholdNanos, int maxSpinWaiters) {
+        this.maxSpins = maxSpins;
+        this.minBackoffNanos = minBackoffNanos > 0 ? minBackoffNanos : 1;
+        this.maxBackoffNanos = Math.max(this.minBackoffNanos, maxBackoffNanos);
+        this.spinThresholdNanos = spinThresholdNanos;
+        this.maxSpinWaiters = maxSpinWaiters;
+    }
+
+    @Override
+    public boolean await(BooleanSupplier attempt, DistributeBackend backend, DistributeKey key, int waitSecond) {
+        if (isSpinning() && (maxSpinWaiters <= 0 || WaitLimit.getLocalWaiting(backend, key) <= maxSpinWaiters)) {
+            //退避不超过平均持有时间 释放后不会空闲太久
+            long cap = Math.max(minBackoffNanos, Math.min(maxBackoffNanos, avgHoldNanos.get()));
+            long backoff = minBackoffNanos;
+            for (int i = 0; i < maxSpins; i++) {
+                //随机抖动 避免多个等待线程同时重试
+                LockSupport.parkNanos(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                if (attempt.getAsBoolean()) {
+                    return true;
+                }
+                backoff = Math.min(cap, backoff * 2);
+            }
+        }
+        return BlockingWaitStrategy.INSTANCE.await(attempt, backend, key, waitSecond);
+    }
+
+    @Override
+    public void onHold(long holdNanos) {
+        //滑动平均 新样本权重1/8
+        avgHoldNanos.accumulateAndGet(holdNanos, (avg, sample) -> avg + (sample - avg) / 8);
+    }
+
+    /**
+     * 当前是否使用重试方式等待
+     */
+    public boolean isSpinning() {
+        return avgHoldNanos.get() <= spinThresholdNanos;
+    }
+
+    /**
+     * 获得持有时间滑动平均值
+     */
+    public long getAvgHoldNanos() {
+        return avgHoldNanos.get();
+    }
+}
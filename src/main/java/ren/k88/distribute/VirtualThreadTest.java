@@ -0,0 +1,115 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大量等待线程测试 比较阻塞等待和共享通知通道等待时的完成数、超时数、最多占用连接数和平台线程数
+ * jdk21及以上通过反射使用虚拟线程（编译目标仍为1.8），否则使用平台线程并减少等待线程数
+ * 参数：第一个为local时使用jvm内存后端，第二个为等待线程数
+ */
+public class VirtualThreadTest {
+    //使用虚拟线程时的等待线程数
+    public static int n = 100000;
+    //使用平台线程时的等待线程数
+    public static int platformN = 2000;
+    //信号量个数
+    public static int permits = 100;
+    //持有信号量毫秒数
+    public static int holdMillis = 10;
+    //等待超时秒数
+    public static int waitSecond = 60;
+    //最大连接数
+    public static int maxTotal = 100;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(maxTotal);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        JedisPool jedisPool = null;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            jedisPool = new JedisPool(config, "127.0.0.1", 6379);
+            backend = new JedisDistributeBackend(jedisPool);
+            System.out.println("redis连接成功");
+        }
+        Method virtual = virtualThreadStarter();
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : virtual != null ? n : platformN;
+        System.out.println((virtual != null ? "虚拟线程" : "平台线程") + " 等待线程数【" + count + "】 信号量个数【" + permits + "】 最大连接数【" + maxTotal + "】");
+        ChannelWaitStrategy channel = new ChannelWaitStrategy();
+        run(backend, jedisPool, virtual, count, "共享通知通道", channel);
+        run(backend, jedisPool, virtual, count, "阻塞等待", BlockingWaitStrategy.INSTANCE);
+        channel.shutdown();
+    }
+
+    private static void run(DistributeBackend backend, JedisPool jedisPool, Method virtual, int count, String name, WaitStrategy waitStrategy) throws Exception {
+        DistributeSemaphore semaphore = new DistributeSemaphore(backend, "virtual:" + System.nanoTime(), permits, 60);
+        semaphore.setWaitStrategy(waitStrategy);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        CountDownLatch countDownLatch = new CountDownLatch(count);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger timeout = new AtomicInteger();
+        int maxActive = 0;
+        long begin = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            Runnable task = () -> {
+                try {
+                    if (semaphore.tryAcquire(1, waitSecond)) {
+                        try {
+                            Thread.sleep(holdMillis);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        semaphore.release(1);
+                        completed.incrementAndGet();
+                    } else {
+                        timeout.incrementAndGet();
+                    }
+                } finally {
+                    countDownLatch.countDown();
+                }
+            };
+            if (virtual != null) {
+                virtual.invoke(null, task);
+            } else {
+                Thread t = new Thread(null, task, "waiter-" + i, 256 * 1024);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+        //连接池耗尽时等待线程可能一直阻塞在借用连接上 超过等待超时时间较多后不再等待
+        long end = begin + TimeUnit.SECONDS.toMillis(waitSecond * 2);
+        while (!countDownLatch.await(10, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < end) {
+            if (jedisPool != null) {
+                maxActive = Math.max(maxActive, jedisPool.getNumActive());
+            }
+        }
+        System.out.println("【" + name + "】完成【" + completed.get() + "】 超时【" + timeout.get() + "】 未结束【" + countDownLatch.getCount() + "】 耗时【"
+                + (System.currentTimeMillis() - begin) + "】毫秒 最多占用连接【" + maxActive + "】 最多平台线程【" + threads.getPeakThreadCount() + "】");
+    }
+
+    /**
+     * jdk21及以上的 Thread.startVirtualThread 不可用时为null
+     */
+    private static Method virtualThreadStarter() {
+        try {
+            Method m = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            Thread t = (Thread) m.invoke(null, (Runnable) () -> {
+            });
+            t.join();
+            return m;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
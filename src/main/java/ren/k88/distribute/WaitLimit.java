@@ -0,0 +1,115 @@
+package ren.k88.distribute;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 等待上限 获取失败需要等待时 等待队列过长则立即拒绝 抛出DistributeRejectedException 不占用线程和连接
+ * 集群上限和预计等待时间在获取脚本中与加入等待原子判断，等待线程数即竞争统计中的waiting；
+ * 本地上限按当前jvm中同一个后端、同一个key的等待线程数判断，使用不同后端的同名key分别计数
+ * 预计等待毫秒数 = 等待线程数 * 平均持有毫秒数 / 信号量个数，平均持有时间来自竞争统计
+ */
+public class WaitLimit {
+    /**
+     * 不限制
+     */
+    public static final WaitLimit NONE = new WaitLimit(0, 0, 0);
+    /**
+     * 当前jvm中每个后端、每个key的等待线程数 后端不再使用时回收
+     */
+    private static final Map<DistributeBackend, ConcurrentMap<String, AtomicInteger>> LOCAL_WAITING = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * 集群中最大等待线程数 小于等于0时不限制
+     */
+    private int maxWaiting;
+    /**
+     * 当前jvm中最大等待线程数 小于等于0时不限制
+     */
+    private int maxLocalWaiting;
+    /**
+     * 最大预计等待毫秒数 小于等于0时不限制
+     */
+    private int maxWaitMillis;
+
+    /**
+     * 实例化等待上限
+     *
+     * @param maxWaiting      集群中最大等待线程数 小于等于0时不限制
+     * @param maxLocalWaiting 当前jvm中最大等待线程数 小于等于0时不限制
+     * @param maxWaitMillis   最大预计等待毫秒数 小于等于0时不限制
+     */
+    public WaitLimit(int maxWaiting, int maxLocalWaiting, int maxWaitMillis) {
+        this.maxWaiting = Math.max(0, maxWaiting);
+        this.maxLocalWaiting = Math.max(0, maxLocalWaiting);
+        this.maxWaitMillis = Math.max(0, maxWaitMillis);
+    }
+
+    public int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    public int getMaxLocalWaiting() {
+        return maxLocalWaiting;
+    }
+
+    public int getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 获得当前jvm中key的等待线程数
+     *
+     * @param backend 协调后端
+     * @param key     锁、信号量key
+     */
+    public static int getLocalWaiting(DistributeBackend backend, DistributeKey key) {
+        AtomicInteger w = localWaiting(backend).get(key.getValueKey());
+        return w == null ? 0 : w.get();
+    }
+
+    /**
+     * 获得后端的等待线程数
+     */
+    private static ConcurrentMap<String, AtomicInteger> localWaiting(DistributeBackend backend) {
+        return LOCAL_WAITING.computeIfAbsent(backend, b -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 加入本地等待 超过本地上限时不加入
+     *
+     * @param backend 协调后端
+     * @param key     锁、信号量key
+     * @return true 已加入 需调用leaveLocal false 拒绝
+     */
+    boolean enterLocal(DistributeBackend backend, DistributeKey key) {
+        boolean[] entered = new boolean[1];
+        localWaiting(backend).compute(key.getValueKey(), (k, w) -> {
+            int current = w == null ? 0 : w.get();
+            if (maxLocalWaiting > 0 && current >= maxLocalWaiting) {
+                return w;
+            }
+            entered[0] = true;
+            if (w == null) {
+                return new AtomicInteger(1);
+            }
+            w.incrementAndGet();
+            return w;
+        });
+        return entered[0];
+    }
+
+    /**
+     * 离开本地等待
+     *
+     * @param backend 协调后端
+     * @param key     锁、信号量key
+     */
+    void leaveLocal(DistributeBackend backend, DistributeKey key) {
+        localWaiting(backend).computeIfPresent(key.getValueKey(), (k, w) -> w.decrementAndGet() > 0 ? w : null);
+    }
+}
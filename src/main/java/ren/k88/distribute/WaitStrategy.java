@@ -0,0 +1,28 @@
+package ren.k88.distribute;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * 锁、信号量获取失败后的等待策略
+ */
+public interface WaitStrategy {
+
+    /**
+     * 等待并重新尝试获得 直到成功或超时
+     * 每次尝试都会续期集群等待队列中的等待租约 至少每 DistributeLock.WAIT_CHUNK_SECOND 秒尝试一次 否则不再计入集群等待线程数
+     *
+     * @param attempt    一次非阻塞的获取尝试
+     * @param backend    协调后端
+     * @param key        锁、信号量key
+     * @param waitSecond 等待超时秒数
+     * @return true 获得成功 false 超时
+     */
+    boolean await(BooleanSupplier attempt, DistributeBackend backend, DistributeKey key, int waitSecond);
+
+    /**
+     * 记录一次持有时间 供策略选择等待方式
+     *
+     * @param holdNanos 从获得到释放的纳秒数
+     */
+    void onHold(long holdNanos);
+}
@@ -0,0 +1,89 @@
+package ren.k88.distribute;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 等待策略测试 比较短临界区下阻塞等待和先重试后阻塞的平均等待时间
+ * 先各执行一次预热，之后两种策略交替先后执行多轮，取平均等待的中位数，避免执行顺序和jit预热影响结果
+ */
+public class WaitStrategyTest {
+    //线程数 分别测试低竞争和高竞争
+    public static int[] threads = {2, 8};
+    //每个线程获得锁次数
+    public static int times = 500;
+    //临界区耗时微秒数
+    public static long holdMicros = 100;
+    //轮数
+    public static int rounds = 7;
+
+    public static void main(String[] args) throws Exception {
+        JedisPoolConfig config = new JedisPoolConfig();
+        //最大连接数
+        config.setMaxTotal(200);
+        //参数为local时使用jvm内存后端 不需要redis
+        DistributeBackend backend;
+        if (args.length > 0 && "local".equals(args[0])) {
+            backend = new LocalDistributeBackend();
+        } else {
+            backend = new JedisDistributeBackend(new JedisPool(config, "127.0.0.1", 6379));
+            System.out.println("redis连接成功");
+        }
+        String[] names = {"blocking", "spin-then-block"};
+        for (int n : threads) {
+            //预热
+            run(backend, n, "warm", BlockingWaitStrategy.INSTANCE);
+            run(backend, n, "warm", new SpinThenBlockWaitStrategy());
+            long[][] waits = new long[names.length][rounds];
+            for (int r = 0; r < rounds; r++) {
+                for (int k = 0; k < names.length; k++) {
+                    //交替先后顺序
+                    int i = r % 2 == 0 ? k : names.length - 1 - k;
+                    WaitStrategy waitStrategy = i == 0 ? BlockingWaitStrategy.INSTANCE : new SpinThenBlockWaitStrategy();
+                    waits[i][r] = run(backend, n, names[i] + ":" + r, waitStrategy);
+                }
+            }
+            for (int i = 0; i < names.length; i++) {
+                Arrays.sort(waits[i]);
+                System.out.println("等待策略【" + names[i] + "】【" + n + "】个线程各获得锁【" + times + "】次 【" + rounds + "】轮平均等待中位数【"
+                        + waits[i][rounds / 2] + "】微秒 各轮【" + Arrays.toString(waits[i]) + "】");
+            }
+        }
+    }
+
+    /**
+     * 执行一轮
+     *
+     * @return 平均等待微秒数
+     */
+    private static long run(DistributeBackend backend, int n, String name, WaitStrategy waitStrategy) throws Exception {
+        CountDownLatch countDownLatch = new CountDownLatch(n);
+        AtomicLong waitNanos = new AtomicLong();
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(() -> {
+                DistributeLock lock = new DistributeLock(backend, "wait:" + name);
+                lock.setWaitStrategy(waitStrategy);
+                String flag = lock.getThreadFlag();
+                for (int j = 0; j < times; j++) {
+                    long start = System.nanoTime();
+                    lock.lock(10, 60, flag);
+                    waitNanos.addAndGet(System.nanoTime() - start);
+                    //模拟短临界区
+                    long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(holdMicros);
+                    while (System.nanoTime() < end) {
+                    }
+                    lock.unlock(flag);
+                }
+                countDownLatch.countDown();
+            });
+            t.start();
+        }
+        countDownLatch.await();
+        return waitNanos.get() / 1000 / (n * times);
+    }
+}